@@ -0,0 +1,51 @@
+package org.rasatech.springllmclickhouse.bench;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic fake warehouse schemas for benchmarks: snake_case table and column names drawn
+ * from a small business vocabulary, so token frequencies look like a real catalogue.
+ */
+public final class SyntheticSchema {
+
+    private static final String[] NOUNS = {"order", "customer", "invoice", "payment", "product", "session",
+            "event", "shipment", "refund", "campaign", "click", "impression", "account", "user", "device",
+            "region", "store", "inventory", "supplier", "ticket"};
+    private static final String[] QUALIFIERS = {"daily", "hourly", "raw", "agg", "fact", "dim", "stg", "hist",
+            "latest", "v2"};
+    private static final String[] COLUMN_WORDS = {"id", "amount", "total", "count", "created_at", "updated_at",
+            "status", "type", "name", "country", "currency", "price", "quantity", "revenue", "gross_amt",
+            "net_amt", "discount", "tax", "duration_ms", "source", "channel", "category", "email", "score"};
+
+    private SyntheticSchema() {
+    }
+
+    public static List<TableMeta> tables(int count, int columnsPerTable, long seed) {
+        Random rnd = new Random(seed);
+        List<TableMeta> tables = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String noun = NOUNS[rnd.nextInt(NOUNS.length)];
+            String table = QUALIFIERS[rnd.nextInt(QUALIFIERS.length)] + "_" + noun + "s_" + i;
+            List<String> cols = new ArrayList<>(columnsPerTable);
+            cols.add(noun + "_id");
+            for (int c = 1; c < columnsPerTable; c++) {
+                String word = COLUMN_WORDS[rnd.nextInt(COLUMN_WORDS.length)];
+                cols.add(c % 3 == 0 ? NOUNS[rnd.nextInt(NOUNS.length)] + "_" + word : word + "_" + c);
+            }
+            tables.add(new TableMeta("db" + (i % 8), table, cols));
+        }
+        return tables;
+    }
+
+    public static final String[] QUESTIONS = {
+            "total revenue per country for daily orders last month",
+            "how many refunds per payment status",
+            "top 10 customers by gross_amt",
+            "average session duration_ms by device channel",
+            "count of impressions and clicks per campaign",
+    };
+}
@@ -0,0 +1,70 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.rasatech.springllmclickhouse.util.SqlFenceScanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQL extraction from sqlcoder output: the final regex pass ({@link OllamaClient#extractSql}) and
+ * the incremental fence scan run on every streamed chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractSqlBenchmark {
+
+    private static final String FENCED = """
+            Here is the query you asked for:
+
+            ```sql
+            SELECT toStartOfDay(o.created_at) AS day, c.country, sum(o.gross_amt) AS revenue
+            FROM db1.daily_orders_12 AS o
+            INNER JOIN db2.dim_customers_7 AS c ON o.customer_id = c.customer_id
+            WHERE o.created_at >= now() - INTERVAL 30 DAY
+            GROUP BY day, c.country
+            ORDER BY day ASC, revenue DESC
+            LIMIT 1000
+            ```
+
+            Explanation: the query joins daily orders with the customer dimension, filters the last
+            thirty days and aggregates gross amount per day and country.
+            """;
+
+    private static final String UNFENCED = "The answer is SELECT count() FROM db1.raw_events_3 WHERE status = 'ok'; hope this helps";
+
+    private List<String> chunks;
+
+    @Setup
+    public void setup() {
+        // roughly one token per chunk, as Ollama streams them
+        chunks = new ArrayList<>();
+        for (int i = 0; i < FENCED.length(); i += 4) {
+            chunks.add(FENCED.substring(i, Math.min(FENCED.length(), i + 4)));
+        }
+    }
+
+    @Benchmark
+    public String extractFenced() {
+        return OllamaClient.extractSql(FENCED);
+    }
+
+    @Benchmark
+    public String extractFallbackSelect() {
+        return OllamaClient.extractSql(UNFENCED);
+    }
+
+    @Benchmark
+    public boolean scanStreamedChunks() {
+        SqlFenceScanner scanner = new SqlFenceScanner();
+        for (String c : chunks) {
+            if (scanner.append(c)) return true;
+        }
+        return false;
+    }
+}
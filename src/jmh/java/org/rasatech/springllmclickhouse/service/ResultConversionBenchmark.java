@@ -0,0 +1,77 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultSet to response conversion for each {@link org.rasatech.springllmclickhouse.dto.ResultFormat},
+ * over an in-memory ResultSet so only the copying and allocation are measured (see {@code -prof gc}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultConversionBenchmark {
+
+    private static final String[] LABELS = {"day", "country", "orders", "revenue", "avg_basket", "status"};
+    private static final String[] TYPES = {"Date", "LowCardinality(String)", "UInt32", "Float64", "Float64", "String"};
+
+    @Param({"1000"})
+    public int rows;
+
+    private Object[][] data;
+
+    @Setup
+    public void setup() {
+        data = new Object[rows][];
+        for (int r = 0; r < rows; r++) {
+            data[r] = new Object[]{java.time.LocalDate.of(2024, 1, 1).plusDays(r % 365), "C" + (r % 40),
+                    (long) r * 3, r * 17.5, r % 90 + 0.25, (r & 1) == 0 ? "paid" : "open"};
+        }
+    }
+
+    @Benchmark
+    public void rows(Blackhole bh) throws SQLException {
+        bh.consume(ClickHouseService.toList(resultSet()));
+    }
+
+    @Benchmark
+    public QueryResult compact() throws SQLException {
+        return ClickHouseService.toCompact(resultSet());
+    }
+
+    @Benchmark
+    public QueryResult columnar() throws SQLException {
+        return ClickHouseService.toColumnar(resultSet());
+    }
+
+    private ResultSet resultSet() {
+        ResultSetMetaData md = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (p, m, a) -> switch (m.getName()) {
+                    case "getColumnCount" -> LABELS.length;
+                    case "getColumnLabel", "getColumnName" -> LABELS[(int) a[0] - 1];
+                    case "getColumnTypeName" -> TYPES[(int) a[0] - 1];
+                    default -> throw new UnsupportedOperationException(m.getName());
+                });
+        int[] cursor = {-1};
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (p, m, a) -> switch (m.getName()) {
+                    case "next" -> ++cursor[0] < data.length;
+                    case "getMetaData" -> md;
+                    case "getObject" -> data[cursor[0]][(int) a[0] - 1];
+                    case "getLong" -> ((Number) data[cursor[0]][(int) a[0] - 1]).longValue();
+                    case "getDouble" -> ((Number) data[cursor[0]][(int) a[0] - 1]).doubleValue();
+                    case "close" -> null;
+                    default -> throw new UnsupportedOperationException(m.getName());
+                });
+    }
+}
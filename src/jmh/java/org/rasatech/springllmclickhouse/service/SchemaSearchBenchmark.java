@@ -0,0 +1,68 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.rasatech.springllmclickhouse.bench.SyntheticSchema;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SchemaService#findCandidateTables} over synthetic schemas of 100 to 50k tables.
+ * The schema comes from a stub {@link JdbcTemplate}, so this measures the index lookup,
+ * column pruning and token-budget trimming only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaSearchBenchmark {
+
+    @Param({"100", "1000", "10000", "50000"})
+    public int tables;
+
+    private SchemaService schemaService;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<TableMeta> schema = SyntheticSchema.tables(tables, 40, 42);
+        JdbcTemplate jdbc = new JdbcTemplate() {
+            @Override
+            public List<Map<String, Object>> queryForList(String sql) {
+                List<Map<String, Object>> rows = new ArrayList<>();
+                if (sql.contains("system.tables")) {
+                    for (TableMeta t : schema) {
+                        rows.add(Map.of("database", t.database(), "name", t.table(), "modified", "2024-01-01 00:00:00"));
+                    }
+                } else {
+                    for (TableMeta t : schema) {
+                        for (String c : t.columns()) {
+                            rows.add(Map.of("database", t.database(), "table", t.table(), "name", c));
+                        }
+                    }
+                }
+                return rows;
+            }
+        };
+        StandardEnvironment env = new StandardEnvironment();
+        env.getPropertySources().addFirst(new MapPropertySource("bench", Map.of(
+                "schema.candidate-tables", "10",
+                "schema.candidate-columns-per-table", "50",
+                "schema.candidate-token-budget", "1500")));
+        schemaService = new SchemaService(jdbc, env, event -> {
+        }, EmbeddingIndex.disabled());
+        schemaService.snapshot();
+    }
+
+    @Benchmark
+    public List<TableMeta> findCandidateTables() {
+        String q = SyntheticSchema.QUESTIONS[next++ % SyntheticSchema.QUESTIONS.length];
+        return schemaService.findCandidateTables(q);
+    }
+}
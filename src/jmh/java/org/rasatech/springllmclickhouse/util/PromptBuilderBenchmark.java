@@ -0,0 +1,49 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.rasatech.springllmclickhouse.bench.SyntheticSchema;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt assembly for a typical candidate set (6 tables x 12 columns) and the token-budget trim
+ * applied to wider candidates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptBuilderBenchmark {
+
+    private static final String QUESTION = SyntheticSchema.QUESTIONS[0];
+    private static final String BROKEN = "SELECT country, sum(revenue) FROM db1.daily_orders_12 GROUP BY country ORDER BY 2 DESC";
+    private static final String ERROR = "Unknown column(s): revenue";
+
+    private List<TableMeta> candidates;
+    private List<TableMeta> wideCandidates;
+
+    @Setup
+    public void setup() {
+        candidates = SyntheticSchema.tables(6, 12, 7);
+        wideCandidates = SyntheticSchema.tables(6, 80, 7);
+    }
+
+    @Benchmark
+    public String build() {
+        return PromptBuilder.build(QUESTION, candidates);
+    }
+
+    @Benchmark
+    public String buildRepairPrompt() {
+        return PromptBuilder.buildRepairPrompt(BROKEN, ERROR, candidates);
+    }
+
+    @Benchmark
+    public List<TableMeta> fitToBudget() {
+        return ColumnPruner.fitToBudget(wideCandidates, QUESTION, 1500);
+    }
+}
@@ -0,0 +1,71 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SqlValidator#validate} on SQL shaped like sqlcoder output. {@code cold} disables the
+ * result cache so every call parses and walks the AST; {@code cached} measures the repeat path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SqlValidatorBenchmark {
+
+    private static final List<TableMeta> TABLES = List.of(
+            new TableMeta("sales", "orders", List.of("order_id", "customer_id", "created_at", "status", "gross_amt", "currency")),
+            new TableMeta("sales", "customers", List.of("customer_id", "name", "email", "country", "created_at")),
+            new TableMeta("sales", "refunds", List.of("refund_id", "order_id", "amount", "reason", "created_at")));
+
+    @Param({"simple", "join", "cte"})
+    public String shape;
+
+    private String sql;
+    private SqlValidator cold;
+    private SqlValidator cached;
+
+    @Setup
+    public void setup() {
+        sql = switch (shape) {
+            case "simple" -> "SELECT status, count() AS n FROM sales.orders GROUP BY status ORDER BY n DESC LIMIT 50";
+            case "join" -> """
+                    SELECT c.country, toStartOfMonth(o.created_at) AS month, sum(o.gross_amt) AS revenue
+                    FROM sales.orders AS o INNER JOIN sales.customers AS c ON o.customer_id = c.customer_id
+                    WHERE o.status = 'paid' AND o.created_at >= now() - INTERVAL 90 DAY
+                    GROUP BY c.country, month ORDER BY month, revenue DESC LIMIT 5000""";
+            default -> """
+                    WITH refunded AS (SELECT order_id, sum(amount) AS refunded FROM sales.refunds GROUP BY order_id)
+                    SELECT o.customer_id, sum(o.gross_amt) - sum(coalesce(r.refunded, 0)) AS net
+                    FROM sales.orders AS o LEFT JOIN refunded AS r ON o.order_id = r.order_id
+                    GROUP BY o.customer_id ORDER BY net DESC""";
+        };
+        cold = new SqlValidator(env("0"));
+        cached = new SqlValidator(env("10000"));
+        cached.validate(sql, TABLES);
+    }
+
+    private static StandardEnvironment env(String cacheSize) {
+        StandardEnvironment env = new StandardEnvironment();
+        env.getPropertySources().addFirst(new MapPropertySource("bench", Map.of("validator.cache-size", cacheSize)));
+        return env;
+    }
+
+    @Benchmark
+    public SqlValidator.ValidationResult validateCold() {
+        return cold.validate(sql, TABLES);
+    }
+
+    @Benchmark
+    public SqlValidator.ValidationResult validateCached() {
+        return cached.validate(sql, TABLES);
+    }
+}
@@ -0,0 +1,257 @@
+package org.rasatech.springllmclickhouse.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.rasatech.springllmclickhouse.SpringLlmClickhouseApplication;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.rasatech.springllmclickhouse.service.SchemaService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test without Ollama or ClickHouse: boots the service in-process against
+ * {@link StubOllama} and {@link StubClickHouseDriver}, drives {@code /api/v1/nl-query} from
+ * {@code concurrency} closed-loop clients and prints throughput and latency percentiles.
+ * <p>
+ * Harness options are {@code key=value} arguments (defaults in {@link #DEFAULTS}); any
+ * {@code --spring.property=value} argument is passed to the service, so thread, cache, scheduler and
+ * pool settings can be compared run against run:
+ * <pre>
+ * ./mvnw -Ploadtest compile exec:exec -Dloadtest.args="concurrency=32 requests=2000 --result-cache.mode=off"
+ * </pre>
+ */
+public final class LoadTest {
+
+    static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("concurrency", "16");          // closed-loop clients
+        DEFAULTS.put("requests", "1000");           // measured requests
+        DEFAULTS.put("warmup", "100");              // requests before measuring
+        DEFAULTS.put("questions", "300");           // distinct questions; fewer than requests exercises caching
+        DEFAULTS.put("users", "8");                 // distinct userIds, round robin
+        DEFAULTS.put("format", "compact");          // rows | compact | columnar
+        DEFAULTS.put("bad-sql-ratio", "0.1");       // questions whose first answer fails validation
+        DEFAULTS.put("tables", "500");
+        DEFAULTS.put("columns", "30");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("result-rows", "100");
+        DEFAULTS.put("exec-ms", "5");               // simulated ClickHouse execution time
+        DEFAULTS.put("estimate-rows", "1000000");   // EXPLAIN ESTIMATE answer, used with --cost.enabled=true
+        DEFAULTS.put("token-ms", "10");             // time per generated token
+        DEFAULTS.put("prompt-ms-per-kchar", "20");  // prompt evaluation time
+        DEFAULTS.put("ollama-parallel", "4");       // concurrent generations the stub serves
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>(DEFAULTS);
+        List<String> springArgs = new ArrayList<>();
+        for (String a : args) {
+            if (a.startsWith("--")) {
+                springArgs.add(a);
+            } else if (a.contains("=")) {
+                String key = a.substring(0, a.indexOf('='));
+                if (!DEFAULTS.containsKey(key)) throw new IllegalArgumentException("Unknown option " + key + ", known: " + DEFAULTS.keySet());
+                opts.put(key, a.substring(a.indexOf('=') + 1));
+            }
+        }
+        int concurrency = Integer.parseInt(opts.get("concurrency"));
+        int requests = Integer.parseInt(opts.get("requests"));
+        int warmup = Integer.parseInt(opts.get("warmup"));
+        int users = Integer.parseInt(opts.get("users"));
+        int tables = Integer.parseInt(opts.get("tables"));
+        int columns = Integer.parseInt(opts.get("columns"));
+        long seed = Long.parseLong(opts.get("seed"));
+
+        List<TableMeta> catalog = Workload.catalog(tables, columns, seed);
+        List<Workload.Script> scripts = Workload.scripts(catalog, Integer.parseInt(opts.get("questions")),
+                Double.parseDouble(opts.get("bad-sql-ratio")), seed);
+
+        try (StubOllama ollama = new StubOllama("sqlcoder:7b", scripts, Integer.parseInt(opts.get("ollama-parallel")),
+                Integer.parseInt(opts.get("token-ms")), Double.parseDouble(opts.get("prompt-ms-per-kchar")))) {
+            // command-line arguments outrank application.yml; the user's own --args come last and win
+            Map<String, String> props = new LinkedHashMap<>();
+            props.put("server.port", "0");
+            props.put("ollama.url", ollama.url());
+            props.put("ollama.model", "sqlcoder:7b");
+            props.put("spring.datasource.url", StubClickHouseDriver.url(tables, columns, seed,
+                    Integer.parseInt(opts.get("result-rows")), Integer.parseInt(opts.get("exec-ms")),
+                    Long.parseLong(opts.get("estimate-rows"))));
+            props.put("spring.datasource.driver-class-name", StubClickHouseDriver.class.getName());
+            props.put("schema.embedding.index-file", "target/loadtest-embeddings.bin");
+            props.put("logging.level.root", "WARN");
+            props.put("logging.level.org.rasatech.springllmclickhouse", "ERROR");
+            props.put("spring.main.banner-mode", "off");
+
+            List<String> bootArgs = new ArrayList<>();
+            props.forEach((k, v) -> bootArgs.add("--" + k + "=" + v));
+            bootArgs.addAll(springArgs);
+            ConfigurableApplicationContext app = new SpringApplicationBuilder(SpringLlmClickhouseApplication.class)
+                    .run(bootArgs.toArray(String[]::new));
+            try {
+                app.getBean(SchemaService.class).snapshot();
+                String port = app.getEnvironment().getProperty("local.server.port");
+                URI uri = URI.create("http://127.0.0.1:" + port + "/api/v1/nl-query?format=" + opts.get("format"));
+
+                System.out.println("Options: " + opts + (springArgs.isEmpty() ? "" : " " + springArgs));
+                Client client = new Client(uri, scripts, users, concurrency);
+                client.run(warmup);
+                MeterRegistry registry = app.getBean(MeterRegistry.class);
+                Map<String, double[]> stagesBefore = timers(registry);
+                long ollamaBefore = ollama.generations.get();
+                long repairsBefore = ollama.repairs.get();
+                long statementsBefore = StubClickHouseDriver.STATEMENTS.get();
+                long queriesBefore = StubClickHouseDriver.QUERIES.get();
+                long explainsBefore = StubClickHouseDriver.EXPLAINS.get();
+
+                Result r = client.run(requests);
+                report(r, concurrency);
+                System.out.printf("LLM generations: %d (repairs %d)   ClickHouse statements: %d (queries %d, explains %d)"
+                                + "   connections opened: %d%n",
+                        ollama.generations.get() - ollamaBefore, ollama.repairs.get() - repairsBefore,
+                        StubClickHouseDriver.STATEMENTS.get() - statementsBefore,
+                        StubClickHouseDriver.QUERIES.get() - queriesBefore, StubClickHouseDriver.EXPLAINS.get() - explainsBefore,
+                        StubClickHouseDriver.CONNECTIONS.get());
+                stages(stagesBefore, timers(registry));
+            } finally {
+                app.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void report(Result r, int concurrency) {
+        long[] lat = r.latencies();
+        Arrays.sort(lat);
+        double seconds = r.wallNanos() / 1e9;
+        System.out.printf("%nRequests: %d (%d failed) at concurrency %d in %.1f s%n", lat.length, r.failures(), concurrency, seconds);
+        System.out.printf("Throughput: %.1f req/s%n", lat.length / seconds);
+        System.out.printf("Latency ms: p50 %.1f   p90 %.1f   p99 %.1f   p999 %.1f   max %.1f%n",
+                pct(lat, 0.50), pct(lat, 0.90), pct(lat, 0.99), pct(lat, 0.999), lat.length == 0 ? 0 : lat[lat.length - 1] / 1e6);
+        if (!r.errors().isEmpty()) System.out.println("Errors: " + r.errors());
+    }
+
+    // nearest rank
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / 1e6;
+    }
+
+    // stage -> {count, total ms}; the registry keeps the warmup too, so the report uses differences
+    private static Map<String, double[]> timers(MeterRegistry registry) {
+        Map<String, double[]> out = new TreeMap<>();
+        for (Timer t : registry.find("nlq.stage").timers()) {
+            out.merge(t.getId().getTag("stage"), new double[]{t.count(), t.totalTime(TimeUnit.MILLISECONDS)},
+                    (a, b) -> new double[]{a[0] + b[0], a[1] + b[1]});
+        }
+        Timer acquire = registry.find("hikaricp.connections.acquire").timer();
+        if (acquire != null) {
+            out.put("pool_acquire", new double[]{acquire.count(), acquire.totalTime(TimeUnit.MILLISECONDS)});
+        }
+        return out;
+    }
+
+    private static void stages(Map<String, double[]> before, Map<String, double[]> after) {
+        System.out.println("Service stages (count, mean ms):");
+        after.forEach((stage, a) -> {
+            double[] b = before.getOrDefault(stage, new double[2]);
+            long count = (long) (a[0] - b[0]);
+            if (count > 0) System.out.printf("  %-16s %7d %9.2f%n", stage, count, (a[1] - b[1]) / count);
+        });
+    }
+
+    private record Result(long[] latencies, long failures, long wallNanos, Map<String, Long> errors) {
+    }
+
+    /**
+     * Closed loop: each worker sends its next request as soon as the previous one completes.
+     */
+    private static final class Client {
+        private final URI uri;
+        private final List<Workload.Script> scripts;
+        private final int users;
+        private final int concurrency;
+        private final HttpClient http;
+        private final ObjectMapper mapper = new ObjectMapper();
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        Client(URI uri, List<Workload.Script> scripts, int users, int concurrency) {
+            this.uri = uri;
+            this.scripts = scripts;
+            this.users = Math.max(1, users);
+            this.concurrency = concurrency;
+            this.http = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(Executors.newFixedThreadPool(Math.max(2, concurrency / 4)))
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+        }
+
+        Result run(int count) throws InterruptedException {
+            long[] latencies = new long[count];
+            AtomicInteger next = new AtomicInteger();
+            AtomicLong failures = new AtomicLong();
+            Map<String, Long> errors = new ConcurrentHashMap<>();
+            ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+            long start = System.nanoTime();
+            for (int w = 0; w < concurrency; w++) {
+                workers.execute(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < count) {
+                        int n = sequence.getAndIncrement();
+                        Workload.Script s = scripts.get(n % scripts.size());
+                        long t0 = System.nanoTime();
+                        String error = send(s.question(), "user-" + (n % users));
+                        latencies[i] = System.nanoTime() - t0;
+                        if (error != null) {
+                            failures.incrementAndGet();
+                            errors.merge(error, 1L, Long::sum);
+                        }
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.HOURS);
+            return new Result(latencies, failures.get(), System.nanoTime() - start, errors);
+        }
+
+        // null on success, otherwise a short error kind
+        private String send(String question, String userId) {
+            try {
+                String body = mapper.writeValueAsString(Map.of("nlQuery", question, "userId", userId));
+                HttpRequest req = HttpRequest.newBuilder(uri)
+                        .header("Content-Type", "application/json")
+                        .timeout(Duration.ofMinutes(5))
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+                HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+                if (resp.statusCode() != 200) return "http " + resp.statusCode();
+                var json = mapper.readTree(resp.body());
+                if (json.path("success").asBoolean()) return null;
+                String message = json.path("message").asText("unknown");
+                int colon = message.indexOf(':');
+                return colon > 0 ? message.substring(0, colon) : message;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            } catch (Exception e) {
+                return e.getClass().getSimpleName();
+            }
+        }
+    }
+}
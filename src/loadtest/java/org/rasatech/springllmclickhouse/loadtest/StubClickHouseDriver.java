@@ -0,0 +1,323 @@
+package org.rasatech.springllmclickhouse.loadtest;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-in for ClickHouse behind {@code jdbc:stubch:key=value;key=value}. Answers the
+ * catalogue queries of the schema service and the result cache from {@link Workload#catalog}, the
+ * {@code EXPLAIN} checks with fixed estimates, and any other SELECT with {@code rows} synthetic rows
+ * after {@code exec-ms} of simulated work. Connections, statements and rows are counted so the
+ * harness can report pool pressure.
+ * <p>
+ * URL keys: {@code tables}, {@code columns}, {@code seed}, {@code rows}, {@code exec-ms},
+ * {@code estimate-rows}.
+ */
+public final class StubClickHouseDriver implements Driver {
+
+    static final String PREFIX = "jdbc:stubch:";
+
+    static final AtomicLong CONNECTIONS = new AtomicLong();
+    static final AtomicLong STATEMENTS = new AtomicLong();
+    static final AtomicLong QUERIES = new AtomicLong();
+    static final AtomicLong EXPLAINS = new AtomicLong();
+
+    private static final Map<String, Backend> BACKENDS = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubClickHouseDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static String url(int tables, int columns, long seed, int rows, int execMs, long estimateRows) {
+        return PREFIX + "tables=" + tables + ";columns=" + columns + ";seed=" + seed + ";rows=" + rows
+                + ";exec-ms=" + execMs + ";estimate-rows=" + estimateRows;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        if (!acceptsURL(url)) return null;
+        CONNECTIONS.incrementAndGet();
+        Backend backend = BACKENDS.computeIfAbsent(url, Backend::new);
+        return proxy(Connection.class, new ConnectionHandler(backend));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * The fake server for one URL: its catalogue and answers.
+     */
+    private static final class Backend {
+        final List<TableMeta> catalog;
+        final int rows;
+        final int execMs;
+        final long estimateRows;
+
+        Backend(String url) {
+            Map<String, String> p = new HashMap<>();
+            for (String kv : url.substring(PREFIX.length()).split(";")) {
+                int eq = kv.indexOf('=');
+                if (eq > 0) p.put(kv.substring(0, eq).trim(), kv.substring(eq + 1).trim());
+            }
+            this.catalog = Workload.catalog(Integer.parseInt(p.getOrDefault("tables", "200")),
+                    Integer.parseInt(p.getOrDefault("columns", "20")), Long.parseLong(p.getOrDefault("seed", "42")));
+            this.rows = Integer.parseInt(p.getOrDefault("rows", "100"));
+            this.execMs = Integer.parseInt(p.getOrDefault("exec-ms", "5"));
+            this.estimateRows = Long.parseLong(p.getOrDefault("estimate-rows", "1000000"));
+        }
+
+        ResultSet answer(String sql) throws SQLException {
+            String s = sql.strip();
+            if (s.startsWith("EXPLAIN ESTIMATE")) {
+                EXPLAINS.incrementAndGet();
+                return table(new String[]{"database", "table", "parts", "rows", "marks"},
+                        new String[]{"String", "String", "UInt64", "UInt64", "UInt64"},
+                        List.<Object[]>of(new Object[]{"db0", "t", 4L, estimateRows, estimateRows / 8192}));
+            }
+            if (s.startsWith("EXPLAIN")) {
+                EXPLAINS.incrementAndGet();
+                return table(new String[]{"explain"}, new String[]{"String"}, List.<Object[]>of(new Object[]{s}));
+            }
+            if (s.contains("system.parts")) {
+                List<Object[]> out = new ArrayList<>(catalog.size());
+                for (TableMeta t : catalog) out.add(new Object[]{t.database(), t.table(), "v1"});
+                return table(new String[]{"database", "name", "version"}, new String[]{"String", "String", "String"}, out);
+            }
+            if (s.contains("system.tables")) {
+                List<Object[]> out = new ArrayList<>(catalog.size());
+                for (TableMeta t : catalog) out.add(new Object[]{t.database(), t.table(), "2024-01-01 00:00:00"});
+                return table(new String[]{"database", "name", "modified"}, new String[]{"String", "String", "String"}, out);
+            }
+            if (s.contains("system.columns")) {
+                List<Object[]> out = new ArrayList<>();
+                for (TableMeta t : catalog) {
+                    for (String c : t.columns()) out.add(new Object[]{t.database(), t.table(), c});
+                }
+                return table(new String[]{"database", "table", "name"}, new String[]{"String", "String", "String"}, out);
+            }
+            QUERIES.incrementAndGet();
+            if (execMs > 0) {
+                try {
+                    Thread.sleep(execMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted", e);
+                }
+            }
+            List<Object[]> out = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) out.add(new Object[]{"key_" + i, (long) (rows - i) * 17, i / 3.0});
+            return table(new String[]{"key", "total", "ratio"}, new String[]{"String", "Int64", "Float64"}, out);
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Backend backend;
+        private volatile boolean closed;
+
+        ConnectionHandler(Backend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "createStatement":
+                    STATEMENTS.incrementAndGet();
+                    return proxy(Statement.class, new StatementHandler(backend, (Connection) proxy));
+                case "isValid":
+                    return !closed;
+                case "isClosed":
+                    return closed;
+                case "close":
+                    closed = true;
+                    return null;
+                case "getAutoCommit":
+                    return true;
+                case "getTransactionIsolation":
+                    return Connection.TRANSACTION_NONE;
+                default:
+                    return common(proxy, m, args);
+            }
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final Backend backend;
+        private final Connection connection;
+        private ResultSet current;
+
+        StatementHandler(Backend backend, Connection connection) {
+            this.backend = backend;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method m, Object[] args) throws Throwable {
+            switch (m.getName()) {
+                case "executeQuery":
+                    current = backend.answer((String) args[0]);
+                    return current;
+                case "execute":
+                    current = backend.answer((String) args[0]);
+                    return true;
+                case "getResultSet":
+                    return current;
+                case "getUpdateCount":
+                case "getMaxRows":
+                    return m.getName().equals("getUpdateCount") ? -1 : 0;
+                case "getConnection":
+                    return connection;
+                default:
+                    return common(proxy, m, args);
+            }
+        }
+    }
+
+    static ResultSet table(String[] names, String[] types, List<Object[]> rows) {
+        return proxy(ResultSet.class, new ResultSetHandler(names, types, rows));
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final String[] names;
+        private final String[] types;
+        private final List<Object[]> rows;
+        private int row = -1;
+        private boolean wasNull;
+
+        ResultSetHandler(String[] names, String[] types, List<Object[]> rows) {
+            this.names = names;
+            this.types = types;
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method m, Object[] args) throws Throwable {
+            String name = m.getName();
+            switch (name) {
+                case "next":
+                    return ++row < rows.size();
+                case "getMetaData":
+                    return proxy(ResultSetMetaData.class, this::meta);
+                case "wasNull":
+                    return wasNull;
+                case "findColumn":
+                    return index(args[0]);
+                case "isClosed":
+                    return false;
+                default:
+                    if (name.startsWith("get") && args != null && args.length >= 1
+                            && (args[0] instanceof Integer || args[0] instanceof String)) {
+                        Object v = rows.get(row)[index(args[0]) - 1];
+                        wasNull = v == null;
+                        return convert(v, m.getReturnType());
+                    }
+                    return common(proxy, m, args);
+            }
+        }
+
+        private Object meta(Object proxy, java.lang.reflect.Method m, Object[] args) {
+            return switch (m.getName()) {
+                case "getColumnCount" -> names.length;
+                case "getColumnLabel", "getColumnName" -> names[(Integer) args[0] - 1];
+                case "getColumnTypeName" -> types[(Integer) args[0] - 1];
+                case "getColumnType" -> switch (types[(Integer) args[0] - 1]) {
+                    case "Int64", "UInt64" -> Types.BIGINT;
+                    case "Float64" -> Types.DOUBLE;
+                    default -> Types.VARCHAR;
+                };
+                case "getColumnClassName" -> Object.class.getName();
+                default -> common(proxy, m, args);
+            };
+        }
+
+        private int index(Object column) throws SQLException {
+            if (column instanceof Integer i) return i;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase((String) column)) return i + 1;
+            }
+            throw new SQLException("No column " + column);
+        }
+
+        private static Object convert(Object v, Class<?> type) {
+            if (type == Object.class) return v;
+            if (type == String.class) return v == null ? null : v.toString();
+            Number n = v instanceof Number num ? num : 0;
+            if (type == long.class) return n.longValue();
+            if (type == int.class) return n.intValue();
+            if (type == double.class) return n.doubleValue();
+            if (type == float.class) return n.floatValue();
+            if (type == boolean.class) return n.intValue() != 0;
+            return v;
+        }
+    }
+
+    // defaults for everything a pool or JdbcTemplate may call but the stub does not model
+    private static Object common(Object proxy, java.lang.reflect.Method m, Object[] args) {
+        switch (m.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "stubch:" + m.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            case "unwrap":
+                return proxy;
+            case "isWrapperFor":
+                return false;
+            default:
+                break;
+        }
+        Class<?> r = m.getReturnType();
+        if (r == boolean.class) return false;
+        if (r == int.class) return 0;
+        if (r == long.class) return 0L;
+        if (r == short.class) return (short) 0;
+        if (r == byte.class) return (byte) 0;
+        if (r == double.class) return 0.0;
+        if (r == float.class) return 0f;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubClickHouseDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
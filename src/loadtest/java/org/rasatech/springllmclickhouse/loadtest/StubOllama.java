@@ -0,0 +1,181 @@
+package org.rasatech.springllmclickhouse.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal Ollama on the JDK HTTP server. {@code /api/generate} streams the scripted SQL for the
+ * question found in the prompt as NDJSON, one token (about four characters) every {@code tokenMs},
+ * after a prompt evaluation delay proportional to the prompt length. At most {@code parallel}
+ * generations run at once, the rest wait, as with {@code OLLAMA_NUM_PARALLEL}. The first answer to a
+ * question scripted with a mistake is the bad SQL; repair prompts get the good SQL. The returned
+ * {@code context} carries the script id so follow-up repairs without the question still resolve.
+ * {@code /api/ps} and {@code /api/embeddings} are answered so health checks and embedding retrieval work.
+ */
+final class StubOllama implements AutoCloseable {
+
+    private static final Pattern QUESTION = Pattern.compile("User request:\\n\"(.*?)\"\\n", Pattern.DOTALL);
+    private static final Pattern PREVIOUS_SQL = Pattern.compile("Previous SQL:\\n```sql\\n(.*?)\\n```", Pattern.DOTALL);
+    private static final int EMBEDDING_DIM = 64;
+
+    final AtomicLong generations = new AtomicLong();
+    final AtomicLong repairs = new AtomicLong();
+    final AtomicLong tokens = new AtomicLong();
+    final AtomicLong embeddings = new AtomicLong();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String model;
+    private final Map<String, Workload.Script> byQuestion;
+    private final Map<String, Workload.Script> byBadSql = new HashMap<>();
+    private final List<Workload.Script> scripts;
+    private final Semaphore slots;
+    private final int tokenMs;
+    private final double promptMsPerKchar;
+
+    StubOllama(String model, List<Workload.Script> scripts, int parallel, int tokenMs, double promptMsPerKchar)
+            throws IOException {
+        this.model = model;
+        this.scripts = scripts;
+        this.byQuestion = Workload.byQuestion(scripts);
+        for (Workload.Script s : scripts) {
+            if (s.badSql() != null) byBadSql.put(s.badSql(), s);
+        }
+        this.slots = new Semaphore(Math.max(1, parallel), true);
+        this.tokenMs = tokenMs;
+        this.promptMsPerKchar = promptMsPerKchar;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "stub-ollama");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/generate", this::generate);
+        server.createContext("/api/ps", this::ps);
+        server.createContext("/api/embeddings", this::embeddings);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void generate(HttpExchange ex) throws IOException {
+        JsonNode req = mapper.readTree(ex.getRequestBody());
+        String prompt = req.path("prompt").asText("");
+        if (prompt.isEmpty()) {
+            // model load request from the backend pool
+            json(ex, Map.of("model", model, "done", true));
+            return;
+        }
+        Workload.Script script = resolve(prompt, req.path("context"));
+        boolean repair = prompt.contains("Previous SQL:");
+        String sql = script == null ? "SELECT 1" : repair ? script.goodSql() : script.firstSql();
+        if (repair) repairs.incrementAndGet();
+        generations.incrementAndGet();
+
+        slots.acquireUninterruptibly();
+        try {
+            sleep((long) (prompt.length() / 1000.0 * promptMsPerKchar));
+            ex.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) {
+                String text = "```sql\n" + sql + "\n```\n";
+                int count = 0;
+                for (int i = 0; i < text.length(); i += 4) {
+                    sleep(tokenMs);
+                    chunk(out, Map.of("model", model, "response", text.substring(i, Math.min(text.length(), i + 4)),
+                            "done", false));
+                    count++;
+                    tokens.incrementAndGet();
+                }
+                Map<String, Object> done = new LinkedHashMap<>();
+                done.put("model", model);
+                done.put("response", "");
+                done.put("done", true);
+                done.put("context", new int[]{script == null ? -1 : script.id()});
+                done.put("prompt_eval_count", prompt.length() / 4);
+                done.put("eval_count", count);
+                done.put("eval_duration", (long) count * tokenMs * 1_000_000L);
+                chunk(out, done);
+            } catch (IOException e) {
+                // the client stops reading once the SQL fence closes, like it does with Ollama
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    private Workload.Script resolve(String prompt, JsonNode context) {
+        Matcher q = QUESTION.matcher(prompt);
+        if (q.find()) return byQuestion.get(q.group(1));
+        if (context.isArray() && !context.isEmpty()) {
+            int id = context.get(0).asInt(-1);
+            if (id >= 0 && id < scripts.size()) return scripts.get(id);
+        }
+        Matcher prev = PREVIOUS_SQL.matcher(prompt);
+        return prev.find() ? byBadSql.get(prev.group(1).strip()) : null;
+    }
+
+    private void ps(HttpExchange ex) throws IOException {
+        json(ex, Map.of("models", List.of(Map.of("name", model, "model", model))));
+    }
+
+    // bag of hashed words: texts sharing words end up close, which is all retrieval needs here
+    private void embeddings(HttpExchange ex) throws IOException {
+        embeddings.incrementAndGet();
+        JsonNode req = mapper.readTree(ex.getRequestBody());
+        float[] v = new float[EMBEDDING_DIM];
+        for (String w : req.path("prompt").asText("").toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+            if (!w.isEmpty()) v[Math.floorMod(w.hashCode(), EMBEDDING_DIM)] += 1;
+        }
+        v[0] += 0.01f;
+        json(ex, Map.of("embedding", v));
+    }
+
+    private void chunk(OutputStream out, Object body) throws IOException {
+        out.write(mapper.writeValueAsBytes(body));
+        out.write('\n');
+        out.flush();
+    }
+
+    private void json(HttpExchange ex, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,108 @@
+package org.rasatech.springllmclickhouse.loadtest;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The synthetic warehouse and the scripted conversation about it. Both the stub driver and the stub
+ * Ollama derive everything from the same parameters, so a question's table exists in the schema the
+ * service loads and the SQL "generated" for it validates against that schema.
+ */
+final class Workload {
+
+    private static final String[] NOUNS = {"order", "customer", "invoice", "payment", "product", "session",
+            "event", "shipment", "refund", "campaign", "click", "impression", "account", "user", "device",
+            "region", "store", "inventory", "supplier", "ticket"};
+    private static final String[] QUALIFIERS = {"daily", "hourly", "raw", "agg", "fact", "dim", "stg", "hist"};
+    private static final String[] METRICS = {"amount", "total", "price", "quantity", "revenue", "discount", "tax",
+            "duration_ms", "score"};
+    private static final String[] DIMENSIONS = {"status", "type", "country", "currency", "source", "channel",
+            "category"};
+
+    /**
+     * How a scripted question's first generation goes wrong, if at all.
+     */
+    enum Mistake {
+        NONE,
+        // a column name with a typo: the service fixes it locally
+        TYPO,
+        // a column that does not exist anywhere: needs an LLM repair round trip
+        UNKNOWN
+    }
+
+    record Script(int id, String question, String goodSql, String badSql, Mistake mistake) {
+        String firstSql() {
+            return mistake == Mistake.NONE ? goodSql : badSql;
+        }
+    }
+
+    private Workload() {
+    }
+
+    static List<TableMeta> catalog(int tables, int columnsPerTable, long seed) {
+        Random rnd = new Random(seed);
+        List<TableMeta> out = new ArrayList<>(tables);
+        for (int i = 0; i < tables; i++) {
+            String noun = NOUNS[rnd.nextInt(NOUNS.length)];
+            String table = QUALIFIERS[rnd.nextInt(QUALIFIERS.length)] + "_" + noun + "s_" + i;
+            List<String> cols = new ArrayList<>(columnsPerTable);
+            cols.add(noun + "_id");
+            cols.add("created_at");
+            for (int c = 2; c < columnsPerTable; c++) {
+                String[] words = c % 2 == 0 ? METRICS : DIMENSIONS;
+                cols.add(words[rnd.nextInt(words.length)] + "_" + c);
+            }
+            out.add(new TableMeta("db" + (i % 4), table, cols));
+        }
+        return out;
+    }
+
+    /**
+     * {@code count} distinct questions over random tables; {@code badRatio} of them get a first answer
+     * that fails validation, alternating between locally repairable and not.
+     */
+    static List<Script> scripts(List<TableMeta> catalog, int count, double badRatio, long seed) {
+        Random rnd = new Random(seed ^ 0x5DEECE66DL);
+        List<Script> out = new ArrayList<>(count);
+        int bad = 0;
+        for (int i = 0; i < count; i++) {
+            TableMeta t = catalog.get(rnd.nextInt(catalog.size()));
+            String metric = pick(t, rnd, 0);
+            String dimension = pick(t, rnd, 1);
+            String question = "total " + metric.replace('_', ' ') + " by " + dimension.replace('_', ' ')
+                    + " in " + t.table().replace('_', ' ') + " #" + i;
+            String good = "SELECT " + dimension + ", sum(" + metric + ") AS total FROM " + t.fqName()
+                    + " GROUP BY " + dimension + " ORDER BY total DESC LIMIT 100";
+            Mistake mistake = Mistake.NONE;
+            String badSql = null;
+            if (rnd.nextDouble() < badRatio) {
+                mistake = bad++ % 2 == 0 ? Mistake.TYPO : Mistake.UNKNOWN;
+                String wrong = mistake == Mistake.TYPO
+                        ? metric.charAt(0) + metric.substring(2)
+                        : "undefined_metric_" + i;
+                badSql = good.replace("sum(" + metric + ")", "sum(" + wrong + ")");
+            }
+            out.add(new Script(i, question, good, badSql, mistake));
+        }
+        return out;
+    }
+
+    // metric columns sit at even positions from 2, dimensions at odd ones
+    private static String pick(TableMeta t, Random rnd, int parity) {
+        List<String> cols = t.columns();
+        if (cols.size() < 4) return cols.get(0);
+        int n = (cols.size() - 2 + (1 - parity)) / 2;
+        return cols.get(2 + parity + 2 * rnd.nextInt(Math.max(1, n)));
+    }
+
+    static Map<String, Script> byQuestion(List<Script> scripts) {
+        Map<String, Script> m = new HashMap<>(scripts.size() * 2);
+        for (Script s : scripts) m.put(s.question(), s);
+        return m;
+    }
+}
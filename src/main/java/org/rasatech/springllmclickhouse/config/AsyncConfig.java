@@ -0,0 +1,26 @@
+package org.rasatech.springllmclickhouse.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+@EnableScheduling
+public class AsyncConfig {
+
+    /**
+     * Blocking JDBC work runs here, never on request or Netty threads. Sized to the Hikari pool so
+     * threads never wait on a connection; excess work queues up to {@code clickhouse.executor-queue-size}
+     * in total. The bounded-elastic cap applies per thread, so the configured total is split across them.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(Environment env) {
+        int poolSize = Integer.parseInt(env.getProperty("spring.datasource.hikari.maximum-pool-size", "10"));
+        int queueSize = Integer.parseInt(env.getProperty("clickhouse.executor-queue-size", "1000"));
+        int perThread = Math.max(1, (queueSize + poolSize - 1) / poolSize);
+        return Schedulers.newBoundedElastic(poolSize, perThread, "jdbc");
+    }
+}
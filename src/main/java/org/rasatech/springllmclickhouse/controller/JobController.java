@@ -0,0 +1,81 @@
+package org.rasatech.springllmclickhouse.controller;
+
+import org.rasatech.springllmclickhouse.dto.JobView;
+import org.rasatech.springllmclickhouse.dto.Priority;
+import org.rasatech.springllmclickhouse.dto.QueryRequest;
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
+import org.rasatech.springllmclickhouse.orchestrator.FairScheduler;
+import org.rasatech.springllmclickhouse.orchestrator.JobService;
+import org.rasatech.springllmclickhouse.orchestrator.SchedulerRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Asynchronous variant of {@code /nl-query}: submit, then poll {@code GET /jobs/{id}} or subscribe
+ * to {@code GET /jobs/{id}/events} (server-sent events) for the result.
+ */
+@RestController
+@RequestMapping("/api/v1")
+public class JobController {
+
+    private final JobService jobs;
+    private final FairScheduler scheduler;
+
+    public JobController(JobService jobs, FairScheduler scheduler) {
+        this.jobs = jobs;
+        this.scheduler = scheduler;
+    }
+
+    @PostMapping(value = "/jobs", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> submit(@RequestBody QueryRequest req,
+                                    @RequestParam(name = "format", defaultValue = "rows") String format,
+                                    @RequestParam(name = "priority", defaultValue = "normal") String priority) {
+        Priority jobPriority;
+        ResultFormat resultFormat;
+        try {
+            jobPriority = Priority.parse(priority);
+            resultFormat = ResultFormat.parse(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(QueryResult.error(e.getMessage()));
+        }
+        try {
+            JobView job = jobs.submit(req.nlQuery(), req.userId(), jobPriority, resultFormat);
+            return ResponseEntity.accepted().location(URI.create("/api/v1/jobs/" + job.id())).body(job);
+        } catch (SchedulerRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(QueryResult.error(e.getMessage()));
+        }
+    }
+
+    @GetMapping(value = "/jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobView> get(@PathVariable String id) {
+        JobView job = jobs.get(id);
+        return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(job);
+    }
+
+    @GetMapping(value = "/jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<JobView>>> events(@PathVariable String id) {
+        Flux<JobView> events = jobs.events(id);
+        if (events == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(events.map(v -> ServerSentEvent.builder(v).id(id).event(v.status().name().toLowerCase(Locale.ROOT)).build()));
+    }
+
+    @GetMapping(value = "/scheduler", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, FairScheduler.StageStats> schedulerStats() {
+        return scheduler.stats();
+    }
+}
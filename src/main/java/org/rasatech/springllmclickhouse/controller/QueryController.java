@@ -1,27 +1,119 @@
 package org.rasatech.springllmclickhouse.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.rasatech.springllmclickhouse.dto.BatchResult;
+import org.rasatech.springllmclickhouse.dto.Priority;
 import org.rasatech.springllmclickhouse.dto.QueryRequest;
 import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
 import org.rasatech.springllmclickhouse.orchestrator.QueryOrchestrator;
+import org.rasatech.springllmclickhouse.orchestrator.SqlPlan;
+import org.rasatech.springllmclickhouse.service.TranslationCache;
+import org.rasatech.springllmclickhouse.util.NdjsonResultWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.UncheckedIOException;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/v1")
 public class QueryController {
+    private static final Logger LOG = LoggerFactory.getLogger(QueryController.class);
+    private static final String NDJSON = "application/x-ndjson";
+
     private final QueryOrchestrator orchestrator;
+    private final TranslationCache translationCache;
+    private final ObjectMapper mapper;
 
-    public QueryController(QueryOrchestrator orchestrator) {
+    public QueryController(QueryOrchestrator orchestrator, TranslationCache translationCache, ObjectMapper mapper) {
         this.orchestrator = orchestrator;
+        this.translationCache = translationCache;
+        this.mapper = mapper;
     }
 
     @PostMapping(value = "/nl-query", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<QueryResult> nlQuery(@RequestBody QueryRequest req) {
-        var result = orchestrator.handleNaturalLanguage(req.nlQuery(), req.userId());
-        return ResponseEntity.ok(result);
+    public Mono<ResponseEntity<QueryResult>> nlQuery(@RequestBody QueryRequest req,
+                                                     @RequestParam(name = "format", defaultValue = "rows") String format,
+                                                     @RequestParam(name = "timings", defaultValue = "false") boolean timings) {
+        ResultFormat resultFormat;
+        try {
+            resultFormat = ResultFormat.parse(format);
+        } catch (IllegalArgumentException e) {
+            return Mono.just(ResponseEntity.badRequest().body(QueryResult.error(e.getMessage())));
+        }
+        // per-stage breakdown only on request; the same numbers are always exported as metrics
+        return orchestrator.handleNaturalLanguage(req.nlQuery(), req.userId(), resultFormat)
+                .map(r -> ResponseEntity.ok(timings ? r : r.withTimings(null)));
+    }
+
+    // NDJSON: header line, one array per row, trailer; rows go from the JDBC cursor to the socket
+    @PostMapping(value = "/nl-query/stream", consumes = MediaType.APPLICATION_JSON_VALUE, produces = NDJSON)
+    public Mono<ResponseEntity<StreamingResponseBody>> nlQueryStream(@RequestBody QueryRequest req) {
+        return orchestrator.plan(req.nlQuery(), req.userId(), true)
+                .onErrorResume(e -> {
+                    LOG.error("Error planning natural language query", e);
+                    return Mono.just(SqlPlan.error("Internal error: " + e.getMessage()));
+                })
+                .map(plan -> {
+                    StreamingResponseBody body = out -> {
+                        var writer = new NdjsonResultWriter(out, mapper);
+                        if (!plan.ok()) {
+                            writer.error(plan.error());
+                            return;
+                        }
+                        try {
+                            String notice = orchestrator.notice(plan);
+                            orchestrator.stream(plan, req.userId(), rs -> writer.write(rs, notice));
+                        } catch (UncheckedIOException e) {
+                            LOG.info("Stream aborted by client: {}", e.getMessage());
+                        } catch (RuntimeException e) {
+                            LOG.error("Error streaming natural language query", e);
+                            writer.error("Internal error: " + e.getMessage());
+                        }
+                    };
+                    return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+                });
+    }
+
+    // NDJSON: one BatchResult line per request, written as each query completes
+    @PostMapping(value = "/nl-query/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = NDJSON)
+    public ResponseEntity<Flux<BatchResult>> nlQueryBatch(@RequestBody List<QueryRequest> requests,
+                                                          @RequestParam(name = "format", defaultValue = "rows") String format,
+                                                          @RequestParam(name = "priority", defaultValue = "normal") String priority,
+                                                          @RequestParam(name = "timings", defaultValue = "false") boolean timings) {
+        Flux<BatchResult> results;
+        try {
+            results = orchestrator.handleBatch(requests, Priority.parse(priority), ResultFormat.parse(format));
+        } catch (IllegalArgumentException e) {
+            // same 400 + QueryResult error as /nl-query, as the single line of the stream
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.parseMediaType(NDJSON))
+                    .body(Flux.just(new BatchResult(-1, null, QueryResult.error(e.getMessage()))));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(results.map(r -> timings ? r : new BatchResult(r.index(), r.nlQuery(), r.result().withTimings(null))));
+    }
+
+    @GetMapping(value = "/cache/translation", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CacheStatsView> translationCacheStats() {
+        var s = translationCache.stats();
+        return ResponseEntity.ok(new CacheStatsView(translationCache.size(), s.hitCount(), s.missCount(),
+                s.evictionCount(), s.hitRate()));
+    }
+
+    public record CacheStatsView(long size, long hits, long misses, long evictions, double hitRate) {
     }
 }
@@ -0,0 +1,8 @@
+package org.rasatech.springllmclickhouse.dto;
+
+/**
+ * One line of a batch response: the result for the request at {@code index} in the submitted list.
+ * Lines arrive in completion order, not submission order.
+ */
+public record BatchResult(int index, String nlQuery, QueryResult result) {
+}
@@ -0,0 +1,4 @@
+package org.rasatech.springllmclickhouse.dto;
+
+public record ColumnMeta(String name, String type) {
+}
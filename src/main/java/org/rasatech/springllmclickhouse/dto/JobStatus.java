@@ -0,0 +1,8 @@
+package org.rasatech.springllmclickhouse.dto;
+
+public enum JobStatus {
+    /** submitted; waiting for or running in the pipeline */
+    PENDING,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,13 @@
+package org.rasatech.springllmclickhouse.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+
+/**
+ * State of an asynchronous query job; {@code result} is set once the job has finished.
+ */
+public record JobView(String id, String userId, Priority priority, JobStatus status, Instant submittedAt,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) Instant finishedAt,
+                      @JsonInclude(JsonInclude.Include.NON_NULL) QueryResult result) {
+}
@@ -0,0 +1,30 @@
+package org.rasatech.springllmclickhouse.dto;
+
+import java.util.Locale;
+
+/**
+ * Scales a job's share in the fair scheduler: a HIGH job is charged a quarter of a NORMAL one,
+ * so it is served sooner without locking other users out.
+ */
+public enum Priority {
+    HIGH(4), NORMAL(1), LOW(0.25);
+
+    private final double weight;
+
+    Priority(double weight) {
+        this.weight = weight;
+    }
+
+    public double weight() {
+        return weight;
+    }
+
+    public static Priority parse(String value) {
+        if (value == null || value.isBlank()) return NORMAL;
+        try {
+            return Priority.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown priority '" + value + "', expected high, normal or low");
+        }
+    }
+}
@@ -1,14 +1,40 @@
 package org.rasatech.springllmclickhouse.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 import java.util.Map;
 
-public record QueryResult(boolean success, String message, List<Map<String, Object>> rows) {
+/**
+ * {@code rows} is filled for {@link ResultFormat#ROWS}; {@code columns} + {@code data} for the compact
+ * shapes, where {@code data} holds row arrays (COMPACT) or per-column arrays (COLUMNAR).
+ * {@code timings} is the optional per-stage breakdown in milliseconds.
+ */
+public record QueryResult(boolean success, String message, List<Map<String, Object>> rows,
+                          @JsonInclude(JsonInclude.Include.NON_NULL) List<ColumnMeta> columns,
+                          @JsonInclude(JsonInclude.Include.NON_NULL) List<?> data,
+                          @JsonInclude(JsonInclude.Include.NON_NULL) Map<String, Double> timings) {
     public static QueryResult ok(List<Map<String, Object>> rows) {
-        return new QueryResult(true, null, rows);
+        return new QueryResult(true, null, rows, null, null, null);
+    }
+
+    public static QueryResult compact(List<ColumnMeta> columns, List<Object[]> rows) {
+        return new QueryResult(true, null, null, columns, rows, null);
+    }
+
+    public static QueryResult columnar(List<ColumnMeta> columns, List<Object> columnData) {
+        return new QueryResult(true, null, null, columns, columnData, null);
     }
 
     public static QueryResult error(String msg) {
-        return new QueryResult(false, msg, null);
+        return new QueryResult(false, msg, null, null, null, null);
+    }
+
+    public QueryResult withMessage(String message) {
+        return new QueryResult(success, message, rows, columns, data, timings);
+    }
+
+    public QueryResult withTimings(Map<String, Double> timings) {
+        return new QueryResult(success, message, rows, columns, data, timings);
     }
 }
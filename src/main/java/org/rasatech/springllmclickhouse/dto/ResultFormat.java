@@ -0,0 +1,24 @@
+package org.rasatech.springllmclickhouse.dto;
+
+import java.util.Locale;
+
+/**
+ * Response shape for query results.
+ * <ul>
+ *     <li>ROWS: one JSON object per row (default, backwards compatible)</li>
+ *     <li>COMPACT: column header once, then one array per row</li>
+ *     <li>COLUMNAR: column header once, then one typed array per column</li>
+ * </ul>
+ */
+public enum ResultFormat {
+    ROWS, COMPACT, COLUMNAR;
+
+    public static ResultFormat parse(String value) {
+        if (value == null || value.isBlank()) return ROWS;
+        try {
+            return ResultFormat.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format '" + value + "', expected rows, compact or columnar");
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import org.rasatech.springllmclickhouse.service.ClickHouseSession;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+/**
+ * The few ClickHouse connections every query of one batch runs on, instead of a checkout per query.
+ * A statement first waits for one of the {@code size} connections without holding a thread
+ * ({@link #withConnection}), and only then queues for a scheduler slot like any other, so a slot is
+ * never held by a statement that has no connection to run on. Holding a turn, it takes an idle
+ * connection of its user (sessions carry per-user settings), opening one while fewer than
+ * {@code size} are open, otherwise in place of another user's idle one. Connections that failed are
+ * dropped; the rest are closed with the batch.
+ */
+final class BatchSessions {
+    private final int size;
+    private final Map<String, Deque<ClickHouseSession>> idle = new HashMap<>();
+    private final Deque<Lease> waiting = new ArrayDeque<>();
+    private int free;
+    private int open;
+    private boolean closed;
+
+    BatchSessions(int size) {
+        this.size = Math.max(1, size);
+        this.free = this.size;
+    }
+
+    /**
+     * Runs {@code work} once a connection turn is free; the turn is given back when {@code work}
+     * terminates or is cancelled, or, if a statement is still running then, when it returns.
+     */
+    <T> Mono<T> withConnection(Function<Lease, Mono<T>> work) {
+        return Mono.usingWhen(lease(), work, Lease::done, (lease, e) -> lease.done(), Lease::done);
+    }
+
+    private Mono<Lease> lease() {
+        return Mono.defer(() -> {
+            Lease lease = new Lease();
+            return Mono.<Lease>create(sink -> {
+                boolean granted;
+                synchronized (this) {
+                    if (closed) {
+                        lease.state = State.DONE;
+                        sink.error(new IllegalStateException("Batch already finished"));
+                        return;
+                    }
+                    lease.sink = sink;
+                    granted = free > 0;
+                    if (granted) {
+                        free--;
+                        lease.state = State.GRANTED;
+                    } else {
+                        waiting.add(lease);
+                    }
+                }
+                if (granted) sink.success(lease);
+            }).doOnCancel(lease::release);
+        });
+    }
+
+    // execution errors arrive wrapped; look through the causes
+    private static boolean connectionLost(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLNonTransientConnectionException || t instanceof SQLTransientConnectionException) return true;
+        }
+        return false;
+    }
+
+    // never waits: the caller's turn guarantees a connection that is idle or may be opened
+    private ClickHouseSession borrow(String userId, Callable<ClickHouseSession> opener) throws Exception {
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Batch already finished");
+            Deque<ClickHouseSession> mine = idle.get(userId);
+            if (mine != null && !mine.isEmpty()) return mine.pop();
+            // all open, none for this user idle: trade another user's idle one for a new connection
+            if (open >= size) closeAnyIdle();
+            open++;
+        }
+        try {
+            return opener.call();
+        } catch (Exception e) {
+            synchronized (this) {
+                open--;
+            }
+            throw e;
+        }
+    }
+
+    private void closeAnyIdle() {
+        for (Deque<ClickHouseSession> sessions : idle.values()) {
+            if (!sessions.isEmpty()) {
+                sessions.pop().close();
+                open--;
+                return;
+            }
+        }
+    }
+
+    private synchronized void giveBack(String userId, ClickHouseSession session, boolean broken) {
+        if (closed || broken) {
+            session.close();
+            open--;
+        } else {
+            idle.computeIfAbsent(userId, k -> new ArrayDeque<>()).push(session);
+        }
+    }
+
+    // sessions still in use are closed when they come back
+    void close() {
+        Deque<Lease> refused;
+        synchronized (this) {
+            closed = true;
+            for (Deque<ClickHouseSession> sessions : idle.values()) {
+                sessions.forEach(ClickHouseSession::close);
+                open -= sessions.size();
+            }
+            idle.clear();
+            refused = new ArrayDeque<>(waiting);
+            waiting.clear();
+            refused.forEach(l -> l.state = State.DONE);
+        }
+        refused.forEach(l -> l.sink.error(new IllegalStateException("Batch already finished")));
+    }
+
+    private enum State {WAITING, GRANTED, CALLING, DONE}
+
+    /**
+     * One turn on the batch's connections; all state is guarded by the enclosing {@link BatchSessions}.
+     */
+    final class Lease {
+        private MonoSink<Lease> sink;
+        private State state = State.WAITING;
+        private boolean releaseAfterCall;
+
+        /**
+         * Runs {@code call} on a connection of {@code userId}. Blocking; call it on the JDBC scheduler.
+         */
+        <T> T call(String userId, Callable<ClickHouseSession> opener, QueryOrchestrator.SessionCall<T> call) throws Exception {
+            synchronized (BatchSessions.this) {
+                if (state != State.GRANTED) throw new IllegalStateException("Batch connection turn already given back");
+                state = State.CALLING;
+            }
+            try {
+                ClickHouseSession session = borrow(userId, opener);
+                boolean broken = false;
+                try {
+                    return call.apply(session);
+                } catch (Exception e) {
+                    broken = connectionLost(e);
+                    throw e;
+                } finally {
+                    giveBack(userId, session, broken);
+                }
+            } finally {
+                boolean release;
+                synchronized (BatchSessions.this) {
+                    state = State.GRANTED;
+                    release = releaseAfterCall;
+                }
+                if (release) release();
+            }
+        }
+
+        private Mono<Void> done() {
+            return Mono.fromRunnable(this::release);
+        }
+
+        private void release() {
+            Lease next;
+            synchronized (BatchSessions.this) {
+                switch (state) {
+                    case WAITING -> {
+                        waiting.remove(this);
+                        state = State.DONE;
+                        return;
+                    }
+                    case CALLING -> {
+                        // cancelled while the statement runs: the connection is still in use
+                        releaseAfterCall = true;
+                        return;
+                    }
+                    case DONE -> {
+                        return;
+                    }
+                    default -> state = State.DONE;
+                }
+                next = waiting.poll();
+                if (next == null) {
+                    free++;
+                    return;
+                }
+                next.state = State.GRANTED;
+            }
+            next.sink.success(next);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.rasatech.springllmclickhouse.service.QueryMetrics;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Admits pipeline work per user with weighted fair queuing, separately for the LLM stage and the
+ * ClickHouse stage, so one user's backlog of slow questions cannot starve everyone else of the
+ * local Ollama or the small Hikari pool.
+ * <p>
+ * Each stage has a global concurrency limit and a per-user limit ({@code scheduler.<stage>.per-user-max-concurrent},
+ * falling back to {@code scheduler.per-user-max-concurrent}). Waiting work is ordered by
+ * start-time fair queuing: a job's virtual start is {@code max(V, lastFinish(user))} and it advances
+ * the user's finish tag by {@code 1 / (userWeight * priorityWeight)}; the eligible waiter with the
+ * smallest start tag goes next. Users are weighted via {@code scheduler.weights.<userId>}.
+ */
+@Component
+public class FairScheduler {
+
+    private static final String ANONYMOUS = "anonymous";
+
+    private final Stage llm;
+    private final Stage clickHouse;
+
+    public FairScheduler(QueryMetrics metrics, MeterRegistry registry, Environment env) {
+        Map<String, Double> weights = Binder.get(env)
+                .bind("scheduler.weights", Bindable.mapOf(String.class, Double.class)).orElse(Map.of());
+        String perUser = env.getProperty("scheduler.per-user-max-concurrent", "1");
+        int perUserQueued = Integer.parseInt(env.getProperty("scheduler.per-user-max-queued", "20"));
+        int maxQueued = Integer.parseInt(env.getProperty("scheduler.max-queued", "500"));
+        int hikariPool = Integer.parseInt(env.getProperty("spring.datasource.hikari.maximum-pool-size", "10"));
+        this.llm = new Stage("llm",
+                Integer.parseInt(env.getProperty("scheduler.llm.max-concurrent", "2")),
+                Integer.parseInt(env.getProperty("scheduler.llm.per-user-max-concurrent", perUser)),
+                perUserQueued, maxQueued, weights, metrics);
+        this.clickHouse = new Stage("clickhouse",
+                Integer.parseInt(env.getProperty("scheduler.clickhouse.max-concurrent", String.valueOf(hikariPool))),
+                Integer.parseInt(env.getProperty("scheduler.clickhouse.per-user-max-concurrent", perUser)),
+                perUserQueued, maxQueued, weights, metrics);
+        for (Stage stage : List.of(llm, clickHouse)) {
+            Gauge.builder("scheduler.running", stage, s -> s.stats().running()).tag("stage", stage.name).register(registry);
+            Gauge.builder("scheduler.queued", stage, s -> s.stats().queued()).tag("stage", stage.name).register(registry);
+        }
+    }
+
+    /**
+     * Runs {@code work} once an LLM slot is granted to {@code ctx}'s user; the slot is held until it terminates.
+     */
+    public <T> Mono<T> llm(QueryContext ctx, Supplier<Mono<T>> work) {
+        return llm.run(ctx, work);
+    }
+
+    public <T> Mono<T> clickHouse(QueryContext ctx, Supplier<Mono<T>> work) {
+        return clickHouse.run(ctx, work);
+    }
+
+    /**
+     * A ClickHouse slot for {@code ctx}'s user that stays held until {@link Permit#release()}, for work
+     * spread over several steps on one connection (see {@link SharedSession}).
+     */
+    Mono<Permit> clickHousePermit(QueryContext ctx) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return clickHouse.acquire(ctx).doOnNext(p -> clickHouse.recordWait(ctx, start));
+        });
+    }
+
+    /**
+     * Blocking variant for work that already runs on a thread allowed to block (e.g. streaming).
+     */
+    public void clickHouseBlocking(QueryContext ctx, Runnable work) {
+        long start = System.nanoTime();
+        Permit permit = clickHouse.acquire(ctx).block();
+        clickHouse.recordWait(ctx, start);
+        try {
+            work.run();
+        } finally {
+            if (permit != null) permit.release();
+        }
+    }
+
+    public Map<String, StageStats> stats() {
+        return Map.of(llm.name, llm.stats(), clickHouse.name, clickHouse.stats());
+    }
+
+    public record StageStats(int running, int queued, int maxConcurrent) {
+    }
+
+    /**
+     * One fair-queued resource. All state is guarded by the instance lock.
+     */
+    static final class Stage {
+        private final String name;
+        private final int maxConcurrent;
+        private final int perUserMaxConcurrent;
+        private final int perUserMaxQueued;
+        private final int maxQueued;
+        private final Map<String, Double> weights;
+        private final QueryMetrics metrics;
+        private final String waitStage;
+
+        private final TreeSet<Waiter> waiting = new TreeSet<>(
+                Comparator.comparingDouble((Waiter w) -> w.start).thenComparingLong(w -> w.seq));
+        private final Map<String, UserState> users = new HashMap<>();
+        private double virtualTime;
+        private long seq;
+        private int running;
+
+        Stage(String name, int maxConcurrent, int perUserMaxConcurrent, int perUserMaxQueued, int maxQueued,
+              Map<String, Double> weights, QueryMetrics metrics) {
+            this.name = name;
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.perUserMaxConcurrent = Math.max(1, perUserMaxConcurrent);
+            this.perUserMaxQueued = perUserMaxQueued;
+            this.maxQueued = maxQueued;
+            this.weights = weights;
+            this.metrics = metrics;
+            this.waitStage = name + "_wait";
+        }
+
+        <T> Mono<T> run(QueryContext ctx, Supplier<Mono<T>> work) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                return Mono.usingWhen(acquire(ctx), p -> {
+                    recordWait(ctx, start);
+                    return work.get();
+                }, p -> Mono.fromRunnable(p::release));
+            });
+        }
+
+        // queueing delay shows up as its own stage, next to the work it delayed
+        void recordWait(QueryContext ctx, long startNanos) {
+            metrics.record(waitStage, ctx.timings(), System.nanoTime() - startNanos);
+        }
+
+        Mono<Permit> acquire(QueryContext ctx) {
+            String user = ctx.userId() == null || ctx.userId().isBlank() ? ANONYMOUS : ctx.userId();
+            double cost = 1.0 / (weights.getOrDefault(user, 1.0) * ctx.priority().weight());
+            return Mono.<Permit>create(sink -> {
+                Waiter w;
+                List<Grant> granted;
+                synchronized (this) {
+                    UserState u = users.computeIfAbsent(user, k -> new UserState());
+                    if (waiting.size() >= maxQueued || u.queued >= perUserMaxQueued) {
+                        forgetIfIdle(user, u);
+                        sink.error(new SchedulerRejectedException("Too many queued " + name + " requests"
+                                + (u.queued >= perUserMaxQueued ? " for user " + user : "")));
+                        return;
+                    }
+                    double start = Math.max(virtualTime, u.finish);
+                    u.finish = start + cost;
+                    u.queued++;
+                    w = new Waiter(user, start, seq++, sink);
+                    waiting.add(w);
+                    granted = dispatch();
+                }
+                sink.onCancel(() -> {
+                    synchronized (this) {
+                        if (waiting.remove(w)) {
+                            UserState u = users.get(w.user);
+                            u.queued--;
+                            forgetIfIdle(w.user, u);
+                        }
+                    }
+                });
+                deliver(granted);
+            }).doOnDiscard(Permit.class, Permit::release);
+        }
+
+        private void release(String user) {
+            List<Grant> granted;
+            synchronized (this) {
+                running--;
+                UserState u = users.get(user);
+                u.running--;
+                granted = dispatch();
+                forgetIfIdle(user, u);
+            }
+            deliver(granted);
+        }
+
+        // caller holds the lock: hand free slots to the eligible waiters with the smallest start tags
+        private List<Grant> dispatch() {
+            List<Grant> granted = new ArrayList<>(0);
+            Iterator<Waiter> it = waiting.iterator();
+            while (running < maxConcurrent && it.hasNext()) {
+                Waiter w = it.next();
+                UserState u = users.get(w.user);
+                if (u.running >= perUserMaxConcurrent) continue;
+                it.remove();
+                u.queued--;
+                u.running++;
+                running++;
+                virtualTime = Math.max(virtualTime, w.start);
+                granted.add(new Grant(w.sink, new Permit(this, w.user)));
+            }
+            return granted;
+        }
+
+        // outside the lock: a subscriber may run (and even finish) its work synchronously
+        private static void deliver(List<Grant> granted) {
+            for (Grant g : granted) g.sink.success(g.permit);
+        }
+
+        private void forgetIfIdle(String user, UserState u) {
+            if (waiting.isEmpty()) {
+                // nobody is backlogged, so no finish tag can still decide an order: V catches up with the
+                // idle users' tags and they are dropped, which keeps one-off user ids from piling up
+                Iterator<UserState> it = users.values().iterator();
+                while (it.hasNext()) {
+                    UserState idle = it.next();
+                    if (idle.running > 0 || idle.queued > 0) continue;
+                    virtualTime = Math.max(virtualTime, idle.finish);
+                    it.remove();
+                }
+            } else if (u.running == 0 && u.queued == 0 && u.finish <= virtualTime) {
+                // a user with nothing running or queued only needs its finish tag if it is still ahead of V
+                users.remove(user);
+            }
+        }
+
+        synchronized boolean tracks(String user) {
+            return users.containsKey(user);
+        }
+
+        synchronized StageStats stats() {
+            return new StageStats(running, waiting.size(), maxConcurrent);
+        }
+    }
+
+    private static final class UserState {
+        double finish;
+        int running;
+        int queued;
+    }
+
+    private record Waiter(String user, double start, long seq, MonoSink<Permit> sink) {
+    }
+
+    private record Grant(MonoSink<Permit> sink, Permit permit) {
+    }
+
+    /**
+     * A granted slot; release exactly once, which {@link Stage#run} does on completion, error or cancel.
+     */
+    static final class Permit {
+        private final Stage stage;
+        private final String user;
+        private boolean released;
+
+        private Permit(Stage stage, String user) {
+            this.stage = stage;
+            this.user = user;
+        }
+
+        void release() {
+            synchronized (this) {
+                if (released) return;
+                released = true;
+            }
+            stage.release(user);
+        }
+    }
+}
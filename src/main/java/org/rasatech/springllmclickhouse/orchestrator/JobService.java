@@ -0,0 +1,125 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.rasatech.springllmclickhouse.dto.JobStatus;
+import org.rasatech.springllmclickhouse.dto.JobView;
+import org.rasatech.springllmclickhouse.dto.Priority;
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Asynchronous query jobs: submit returns at once, the pipeline runs in the background under the
+ * {@link FairScheduler}, and the outcome can be polled or subscribed to. Finished jobs are kept for
+ * {@code jobs.retention-minutes}.
+ */
+@Service
+public class JobService {
+
+    private final QueryOrchestrator orchestrator;
+    private final int perUserMaxPending;
+    private final Cache<String, Job> jobs;
+    // only users with pending jobs have an entry
+    private final ConcurrentMap<String, Integer> pendingByUser = new ConcurrentHashMap<>();
+
+    public JobService(QueryOrchestrator orchestrator, Environment env) {
+        this.orchestrator = orchestrator;
+        this.perUserMaxPending = Integer.parseInt(env.getProperty("jobs.per-user-max-pending", "50"));
+        long maxJobs = Long.parseLong(env.getProperty("jobs.max-jobs", "10000"));
+        int retention = Integer.parseInt(env.getProperty("jobs.retention-minutes", "30"));
+        this.jobs = Caffeine.newBuilder()
+                .maximumSize(maxJobs)
+                .expireAfterWrite(Duration.ofMinutes(retention))
+                .<String, Job>removalListener((id, job, cause) -> {
+                    // evicted for space while still running: nobody can fetch the result any more
+                    if (job != null && cause == RemovalCause.SIZE) job.cancel();
+                })
+                .build();
+    }
+
+    /**
+     * Registers and starts a job; fails with {@link SchedulerRejectedException} when the user
+     * already has {@code jobs.per-user-max-pending} jobs pending.
+     */
+    public JobView submit(String nlQuery, String userId, Priority priority, ResultFormat format) {
+        String user = userId == null ? "" : userId;
+        boolean[] admitted = new boolean[1];
+        pendingByUser.compute(user, (k, n) -> {
+            int pending = n == null ? 0 : n;
+            if (pending >= perUserMaxPending) return n;
+            admitted[0] = true;
+            return pending + 1;
+        });
+        if (!admitted[0]) {
+            throw new SchedulerRejectedException("Too many pending jobs for user " + userId);
+        }
+        Job job = new Job(UUID.randomUUID().toString(), userId, priority);
+        jobs.put(job.id, job);
+        job.run = orchestrator.handleNaturalLanguage(nlQuery, userId, priority, format)
+                .doFinally(s -> pendingByUser.computeIfPresent(user, (k, n) -> n == 1 ? null : n - 1))
+                .subscribe(job::finish, e -> job.finish(QueryResult.error("Internal error: " + e.getMessage())));
+        return job.view();
+    }
+
+    public JobView get(String id) {
+        Job job = jobs.getIfPresent(id);
+        return job == null ? null : job.view();
+    }
+
+    /**
+     * Current state, then the final state once the job finishes; null for an unknown id.
+     */
+    public Flux<JobView> events(String id) {
+        Job job = jobs.getIfPresent(id);
+        if (job == null) return null;
+        return Flux.concat(Mono.fromSupplier(job::view), job.done.asMono().then(Mono.fromSupplier(job::view)))
+                .distinctUntilChanged(JobView::status);
+    }
+
+    private static final class Job {
+        final String id;
+        final String userId;
+        final Priority priority;
+        final Instant submittedAt = Instant.now();
+        final Sinks.Empty<Void> done = Sinks.empty();
+        volatile Instant finishedAt;
+        volatile QueryResult result;
+        volatile Disposable run;
+
+        Job(String id, String userId, Priority priority) {
+            this.id = id;
+            this.userId = userId;
+            this.priority = priority;
+        }
+
+        void finish(QueryResult r) {
+            finishedAt = Instant.now();
+            result = r;
+            done.tryEmitEmpty();
+        }
+
+        void cancel() {
+            Disposable d = run;
+            if (d != null) d.dispose();
+        }
+
+        JobView view() {
+            QueryResult r = result;
+            JobStatus status = r == null ? JobStatus.PENDING : r.success() ? JobStatus.SUCCEEDED : JobStatus.FAILED;
+            return new JobView(id, userId, priority, status, submittedAt, finishedAt, r);
+        }
+    }
+}
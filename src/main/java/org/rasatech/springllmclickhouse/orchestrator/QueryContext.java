@@ -0,0 +1,21 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import org.rasatech.springllmclickhouse.dto.Priority;
+import org.rasatech.springllmclickhouse.service.QueryMetrics;
+
+/**
+ * Who a pipeline run is for and how it is accounted: the scheduler uses user and priority,
+ * metrics add the stage timings of the run to {@code timings}, and {@code session} holds the run's
+ * ClickHouse connection between its checks and its execution. Runs of a batch use the batch's
+ * connections ({@code batch}) instead.
+ */
+public record QueryContext(String userId, Priority priority, QueryMetrics.Timings timings, SharedSession session,
+                           BatchSessions batch) {
+    public static QueryContext of(String userId, Priority priority) {
+        return new QueryContext(userId, priority, new QueryMetrics.Timings(), new SharedSession(), null);
+    }
+
+    static QueryContext inBatch(String userId, Priority priority, BatchSessions batch) {
+        return new QueryContext(userId, priority, new QueryMetrics.Timings(), new SharedSession(), batch);
+    }
+}
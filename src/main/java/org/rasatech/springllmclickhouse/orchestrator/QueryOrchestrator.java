@@ -1,18 +1,41 @@
 package org.rasatech.springllmclickhouse.orchestrator;
 
+import org.rasatech.springllmclickhouse.dto.BatchResult;
+import org.rasatech.springllmclickhouse.dto.Priority;
+import org.rasatech.springllmclickhouse.dto.QueryRequest;
 import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
 import org.rasatech.springllmclickhouse.model.TableMeta;
 import org.rasatech.springllmclickhouse.service.ClickHouseService;
+import org.rasatech.springllmclickhouse.service.ClickHouseSession;
+import org.rasatech.springllmclickhouse.service.CostGuard;
 import org.rasatech.springllmclickhouse.service.OllamaClient;
+import org.rasatech.springllmclickhouse.service.OllamaOverloadedException;
+import org.rasatech.springllmclickhouse.service.QueryMetrics;
+import org.rasatech.springllmclickhouse.service.ResultCache;
 import org.rasatech.springllmclickhouse.service.SchemaService;
+import org.rasatech.springllmclickhouse.service.SchemaSnapshot;
+import org.rasatech.springllmclickhouse.service.TranslationCache;
 import org.rasatech.springllmclickhouse.util.PromptBuilder;
+import org.rasatech.springllmclickhouse.util.SingleFlight;
+import org.rasatech.springllmclickhouse.util.SqlRepairer;
 import org.rasatech.springllmclickhouse.util.SqlValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class QueryOrchestrator {
@@ -21,59 +44,413 @@ public class QueryOrchestrator {
     private final SchemaService schemaService;
     private final OllamaClient ollama;
     private final SqlValidator validator;
+    private final SqlRepairer repairer;
     private final ClickHouseService clickHouse;
+    private final TranslationCache translationCache;
+    private final ResultCache resultCache;
+    private final CostGuard costGuard;
+    private final QueryMetrics metrics;
+    private final FairScheduler scheduler;
+    private final Scheduler jdbcScheduler;
+    private final SingleFlight<String, QueryResult> inFlight = new SingleFlight<>();
+    private final boolean coalesce;
+    private final int batchMaxSize;
+    private final int batchLlmParallelism;
+    private final int batchConnections;
     private final int maxRetries = 3;
 
     public QueryOrchestrator(SchemaService schemaService, OllamaClient ollama,
-                             SqlValidator validator, ClickHouseService clickHouse) {
+                             SqlValidator validator, SqlRepairer repairer, ClickHouseService clickHouse,
+                             TranslationCache translationCache, ResultCache resultCache, CostGuard costGuard,
+                             QueryMetrics metrics, FairScheduler scheduler, Scheduler jdbcScheduler, Environment env) {
         this.schemaService = schemaService;
         this.ollama = ollama;
         this.validator = validator;
+        this.repairer = repairer;
         this.clickHouse = clickHouse;
+        this.translationCache = translationCache;
+        this.resultCache = resultCache;
+        this.costGuard = costGuard;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.jdbcScheduler = jdbcScheduler;
+        this.coalesce = Boolean.parseBoolean(env.getProperty("coalescing.enabled", "true"));
+        this.batchMaxSize = Integer.parseInt(env.getProperty("batch.max-size", "100"));
+        this.batchLlmParallelism = Integer.parseInt(env.getProperty("batch.llm-parallelism", "4"));
+        this.batchConnections = Integer.parseInt(env.getProperty("batch.connections", "2"));
     }
 
-    public QueryResult handleNaturalLanguage(String userPrompt, String userId) {
+    /**
+     * Non-blocking pipeline: LLM generation never holds a thread, JDBC work runs on the bounded
+     * {@code jdbcScheduler}. Concurrent identical questions (after normalization, same schema
+     * version, result format and effective ClickHouse settings of the user) share one pipeline run.
+     * The result carries the per-stage timing breakdown of the run that produced it.
+     * LLM and ClickHouse work is admitted per {@code userId} by the {@link FairScheduler}; a coalesced
+     * run is accounted to the user who started it.
+     */
+    public Mono<QueryResult> handleNaturalLanguage(String userPrompt, String userId, ResultFormat format) {
+        return handleNaturalLanguage(userPrompt, userId, Priority.NORMAL, format);
+    }
+
+    public Mono<QueryResult> handleNaturalLanguage(String userPrompt, String userId, Priority priority,
+                                                   ResultFormat format) {
+        if (!coalesce) {
+            return run(userPrompt, userId, priority, format);
+        }
+        String key = TranslationCache.normalize(userPrompt) + "|" + schemaService.schemaVersion() + "|" + format
+                + "|" + clickHouse.settingsKey(userId);
+        return inFlight.execute(key, () -> run(userPrompt, userId, priority, format));
+    }
+
+    /**
+     * Answers many questions as one unit and emits each result as soon as its query completes.
+     * The schema snapshot is looked up once for the whole batch, identical questions of the same
+     * user (after normalization) run once and answer every request that asked them, at most
+     * {@code batch.llm-parallelism} questions are in the pipeline at a time, and all ClickHouse work
+     * of the batch shares {@code batch.connections} connections. Each question is still admitted by
+     * the {@link FairScheduler} as its request's user.
+     */
+    public Flux<BatchResult> handleBatch(List<QueryRequest> requests, Priority priority, ResultFormat format) {
+        if (requests.size() > batchMaxSize) {
+            throw new IllegalArgumentException("Batch of " + requests.size() + " questions exceeds the limit of " + batchMaxSize);
+        }
+        return Flux.defer(() -> {
+            Map<String, List<Integer>> distinct = new LinkedHashMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                // a group runs as one user: its scheduling share, limits and result are that user's
+                QueryRequest req = requests.get(i);
+                distinct.computeIfAbsent(req.userId() + "|" + TranslationCache.normalize(req.nlQuery()),
+                        k -> new ArrayList<>()).add(i);
+            }
+            metrics.batch(requests.size(), distinct.size());
+            BatchSessions sessions = new BatchSessions(batchConnections);
+            return Mono.fromCallable(schemaService::snapshot)
+                    .subscribeOn(jdbcScheduler)
+                    .flatMapMany(snapshot -> Flux.fromIterable(distinct.values())
+                            .flatMap(indexes -> {
+                                QueryRequest first = requests.get(indexes.get(0));
+                                QueryContext ctx = QueryContext.inBatch(first.userId(), priority, sessions);
+                                return run(first.nlQuery(), ctx, format, snapshot)
+                                        .flatMapIterable(r -> indexes.stream()
+                                                .map(i -> new BatchResult(i, requests.get(i).nlQuery(), r))
+                                                .toList());
+                            }, batchLlmParallelism))
+                    .doFinally(s -> sessions.close());
+        });
+    }
+
+    private Mono<QueryResult> run(String userPrompt, String userId, Priority priority, ResultFormat format) {
+        return Mono.defer(() -> run(userPrompt, QueryContext.of(userId, priority), format, null));
+    }
+
+    // snapshot: the schema to plan against, or null for the current one
+    private Mono<QueryResult> run(String userPrompt, QueryContext ctx, ResultFormat format, SchemaSnapshot snapshot) {
+        return Mono.defer(() -> {
+            QueryMetrics.Timings timings = ctx.timings();
+            return plan(userPrompt, true, ctx, snapshot)
+                    .flatMap(plan -> {
+                        if (!plan.ok()) {
+                            metrics.failure(plan.error());
+                            return Mono.just(QueryResult.error(plan.error()));
+                        }
+                        Mono<QueryResult> executed = execute(plan, format, ctx);
+                        if (!plan.cached()) {
+                            return executed;
+                        }
+                        // cached SQL no longer runs (e.g. table changed): regenerate once
+                        return executed.onErrorResume(e -> {
+                            LOG.warn("Cached SQL failed, regenerating: {}", e.getMessage());
+                            metrics.retry("cached sql failed");
+                            translationCache.invalidate(plan.cacheKey());
+                            return plan(userPrompt, false, ctx, snapshot).flatMap(p -> {
+                                if (p.ok()) return execute(p, format, ctx);
+                                metrics.failure(p.error());
+                                return Mono.just(QueryResult.error(p.error()));
+                            });
+                        });
+                    })
+                    .onErrorResume(OllamaOverloadedException.class, e -> {
+                        LOG.warn("Rejected by LLM admission control: {}", e.getMessage());
+                        metrics.failure("llm busy");
+                        return Mono.just(QueryResult.error("LLM busy, retry later: " + e.getMessage()));
+                    })
+                    .onErrorResume(SchedulerRejectedException.class, e -> {
+                        LOG.warn("Rejected by scheduler: {}", e.getMessage());
+                        metrics.failure("queue full");
+                        return Mono.just(QueryResult.error("Busy, retry later: " + e.getMessage()));
+                    })
+                    .onErrorResume(e -> {
+                        LOG.error("Error handling natural language query", e);
+                        metrics.failure("internal error");
+                        return Mono.just(QueryResult.error("Internal error: " + e.getMessage()));
+                    })
+                    .map(r -> {
+                        metrics.request(r.success(), timings.elapsedNanos());
+                        return r.withTimings(timings.toMillis());
+                    })
+                    .doFinally(s -> ctx.session().close());
+        });
+    }
+
+    public Mono<QueryResult> execute(SqlPlan plan, ResultFormat format) {
+        return Mono.defer(() -> {
+            QueryContext ctx = QueryContext.of(null, Priority.NORMAL);
+            return execute(plan, format, ctx).doFinally(s -> ctx.session().close());
+        });
+    }
+
+    // same canonical SQL from any phrasing: served from the result cache without touching ClickHouse;
+    // now(), rand() and the like give a different answer every run and always go to ClickHouse
+    private Mono<QueryResult> execute(SqlPlan plan, ResultFormat format, QueryContext ctx) {
+        String settingsKey = clickHouse.settingsKey(ctx.userId());
+        QueryResult cachedResult = plan.deterministic() ? resultCache.get(plan.sql(), settingsKey, format) : null;
+        if (cachedResult != null) {
+            translationCache.put(plan.cacheKey(), plan.sql(), plan.tables(), plan.deterministic());
+            return Mono.just(cachedResult);
+        }
+        long generation = resultCache.generation();
+        String notice = notice(plan);
+        return inSession(ctx, QueryMetrics.EXECUTE, s -> s.execute(resultCache.decorate(plan.sql()), format))
+                .map(r -> notice == null ? r : r.withMessage(notice))
+                .doOnNext(r -> {
+                    metrics.rows(rowCount(r, format));
+                    translationCache.put(plan.cacheKey(), plan.sql(), plan.tables(), plan.deterministic());
+                    if (plan.deterministic()) resultCache.put(plan.sql(), settingsKey, format, plan.tables(), generation, r);
+                });
+    }
+
+    private static int rowCount(QueryResult r, ResultFormat format) {
+        if (r.rows() != null) return r.rows().size();
+        if (r.data() == null) return 0;
+        if (format == ResultFormat.COLUMNAR) {
+            return r.data().isEmpty() ? 0 : java.lang.reflect.Array.getLength(r.data().get(0));
+        }
+        return r.data().size();
+    }
+
+    /**
+     * Message that goes with the plan's result, e.g. that it is partial; null when there is none.
+     */
+    public String notice(SqlPlan plan) {
+        return costGuard.notice(plan.sql());
+    }
+
+    /**
+     * Streams rows of an already resolved plan to {@code handler}. Blocking; call it from a
+     * thread that may block (e.g. a {@code StreamingResponseBody}).
+     */
+    public void stream(SqlPlan plan, String userId, ClickHouseService.ResultSetHandler handler) {
+        long start = System.nanoTime();
         try {
-            List<TableMeta> candidates = schemaService.findCandidateTables(userPrompt);
+            scheduler.clickHouseBlocking(QueryContext.of(userId, Priority.NORMAL),
+                    () -> clickHouse.streamReadOnly(resultCache.decorate(plan.sql()), userId, handler));
+        } catch (RuntimeException e) {
+            if (plan.cached()) translationCache.invalidate(plan.cacheKey());
+            throw e;
+        } finally {
+            metrics.record(QueryMetrics.EXECUTE, null, System.nanoTime() - start);
+        }
+        translationCache.put(plan.cacheKey(), plan.sql(), plan.tables(), plan.deterministic());
+    }
 
-            String prompt = PromptBuilder.build(userPrompt, candidates);
+    /**
+     * Resolves a natural-language question to validated SQL without executing it.
+     */
+    public Mono<SqlPlan> plan(String userPrompt, String userId, boolean useCache) {
+        return Mono.defer(() -> {
+            QueryContext ctx = QueryContext.of(userId, Priority.NORMAL);
+            return plan(userPrompt, useCache, ctx, null).doFinally(s -> ctx.session().close());
+        });
+    }
+
+    private Mono<SqlPlan> plan(String userPrompt, boolean useCache, QueryContext ctx, SchemaSnapshot snapshot) {
+        if (snapshot == null) {
+            return Mono.fromCallable(schemaService::snapshot)
+                    .subscribeOn(jdbcScheduler)
+                    .flatMap(s -> plan(userPrompt, useCache, ctx, s));
+        }
+        QueryMetrics.Timings timings = ctx.timings();
+        return metrics.time(QueryMetrics.SCHEMA, timings,
+                        schemaService.findCandidates(snapshot, userPrompt).subscribeOn(jdbcScheduler))
+                .flatMap(candidates -> {
+                    // repeated question against the same schema: reuse the SQL, skip the LLM
+                    String cacheKey = translationCache.keyFor(userPrompt, candidates);
+                    TranslationCache.Translation cached = useCache ? translationCache.get(cacheKey) : null;
+                    if (useCache) metrics.translation(cached != null);
+                    if (cached != null) {
+                        return Mono.just(SqlPlan.cached(cached.sql(), cacheKey, cached.tables(), cached.deterministic()));
+                    }
 
-            return attemptGenerateAndValidate(prompt, candidates, 0);
+                    String prompt = metrics.time(QueryMetrics.PROMPT, timings, () -> PromptBuilder.build(userPrompt, candidates));
 
-        } catch (Exception e) {
-            LOG.error("Error handling natural language query", e);
-            return QueryResult.error("Internal error: " + e.getMessage());
+                    return generateAndValidate(prompt, candidates, schemaService.withAllColumns(snapshot, candidates), cacheKey, ctx);
+                });
+    }
+
+    // retry loop as a flat chain: each attempt either settles a plan or emits the next repair attempt
+    private Mono<SqlPlan> generateAndValidate(String prompt, List<TableMeta> candidates, List<TableMeta> allowed,
+                                              String cacheKey, QueryContext ctx) {
+        return Mono.just(Attempt.first(prompt))
+                .expand(a -> a.plan() != null ? Mono.empty() : runAttempt(a, candidates, allowed, cacheKey, ctx))
+                .filter(a -> a.plan() != null)
+                .next()
+                .map(Attempt::plan);
+    }
+
+    private Mono<Attempt> runAttempt(Attempt attempt, List<TableMeta> candidates, List<TableMeta> allowed,
+                                     String cacheKey, QueryContext ctx) {
+        QueryMetrics.Timings timings = ctx.timings();
+        if (attempt.number() >= maxRetries) {
+            return Mono.just(attempt.settle(SqlPlan.error("Failed to generate valid SQL after " + maxRetries + " attempts.")));
         }
+
+        // never hold a connection while the model generates
+        ctx.session().release();
+        metrics.prompt(attempt.prompt());
+        return scheduler.llm(ctx, () -> metrics.time(QueryMetrics.LLM, timings,
+                        ollama.generate(attempt.prompt())))
+                .defaultIfEmpty(OllamaClient.Generation.empty())
+                .publishOn(Schedulers.parallel())
+                .flatMap(gen -> {
+                    metrics.generation(gen.usage());
+                    String rawSql = gen.sql();
+                    if (rawSql.isBlank()) {
+                        // no response at all (call failed) is final; an answer without SQL is worth another try
+                        if (gen.usage() == null) {
+                            return Mono.just(attempt.settle(SqlPlan.error("LLM returned empty SQL")));
+                        }
+                        LOG.warn("No SQL in LLM response on attempt {}", attempt.number() + 1);
+                        metrics.retry("empty sql");
+                        return Mono.just(attempt.repair(gen, "The response contained no SQL. Answer with one SELECT statement in a ```sql block", candidates));
+                    }
+
+                    var checked = metrics.time(QueryMetrics.VALIDATE, timings, () -> validator.validate(rawSql, allowed));
+                    if (!checked.valid()) {
+                        // mechanical mistakes are fixed here instead of costing another generation
+                        var repaired = metrics.time(QueryMetrics.REPAIR, timings, () -> repairLocally(rawSql, allowed));
+                        if (repaired == null) {
+                            LOG.warn("Validation failed on attempt {}: {}", attempt.number() + 1, checked.message());
+                            metrics.retry(checked.message());
+                            return Mono.just(attempt.repair(gen, checked.message(), candidates));
+                        }
+                        LOG.debug("Repaired locally on attempt {}: {}", attempt.number() + 1, checked.message());
+                        checked = repaired;
+                    }
+                    var vr = checked;
+
+                    // EXPLAIN ESTIMATE also makes ClickHouse analyze the statement, so it replaces the syntax check
+                    if (costGuard.enabled()) {
+                        return checkCost(attempt, gen, vr, candidates, cacheKey, ctx);
+                    }
+
+                    // local checks were conclusive: no EXPLAIN round trip, no extra connection checkout
+                    if (!vr.needsServerCheck()) {
+                        return Mono.just(attempt.settle(SqlPlan.generated(vr.sql(), cacheKey, vr.tables(), vr.deterministic())));
+                    }
+
+                    // Optional: Check ClickHouse EXPLAIN SYNTAX
+                    return inSession(ctx, QueryMetrics.EXPLAIN, s -> s.validateSyntax(vr.sql()))
+                            .map(syntaxOk -> {
+                                if (!syntaxOk) {
+                                    LOG.warn("ClickHouse EXPLAIN failed on attempt {} for SQL: {}", attempt.number() + 1, vr.sql());
+                                    metrics.retry("explain failed");
+                                    return attempt.repair(gen, "ClickHouse syntax invalid", candidates);
+                                }
+                                return attempt.settle(SqlPlan.generated(vr.sql(), cacheKey, vr.tables(), vr.deterministic()));
+                            });
+                });
     }
 
-    private QueryResult attemptGenerateAndValidate(String prompt, List<TableMeta> candidates, int attempt) {
-        if (attempt >= maxRetries) {
-            return QueryResult.error("Failed to generate valid SQL after " + maxRetries + " attempts.");
+    // a valid result for the locally repaired SQL, or null when the LLM has to fix it
+    private SqlValidator.ValidationResult repairLocally(String rawSql, List<TableMeta> allowed) {
+        String repaired = repairer.repair(rawSql, allowed);
+        if (repaired == null) {
+            metrics.localRepair(QueryMetrics.RepairOutcome.NOT_APPLICABLE);
+            return null;
         }
+        var vr = validator.validate(repaired, allowed);
+        metrics.localRepair(vr.valid() ? QueryMetrics.RepairOutcome.SAVED : QueryMetrics.RepairOutcome.FAILED);
+        return vr.valid() ? vr : null;
+    }
 
-        Mono<String> sqlMono = ollama.generateSqlAsync(prompt);
+    private Mono<Attempt> checkCost(Attempt attempt, OllamaClient.Generation gen, SqlValidator.ValidationResult vr,
+                                    List<TableMeta> candidates, String cacheKey, QueryContext ctx) {
+        return inSession(ctx, QueryMetrics.COST, s -> s.estimate(vr.sql()))
+                .map(cost -> {
+                    metrics.cost(cost);
+                    String over = costGuard.check(cost);
+                    if (over == null) {
+                        return attempt.settle(SqlPlan.generated(vr.sql(), cacheKey, vr.tables(), vr.deterministic()));
+                    }
+                    CostGuard.OnExceed action = costGuard.onExceed(cost);
+                    LOG.warn("Cost budget exceeded on attempt {} ({}): {}", attempt.number() + 1, action, over);
+                    metrics.costExceeded(action);
+                    return switch (action) {
+                        case REJECT -> attempt.settle(SqlPlan.error(over));
+                        case REPAIR -> {
+                            metrics.retry("query too expensive");
+                            yield attempt.repair(gen, over, candidates);
+                        }
+                        case REWRITE -> attempt.settle(SqlPlan.generated(costGuard.rewrite(vr.sql()), cacheKey, vr.tables(), vr.deterministic()));
+                    };
+                })
+                // the server refused the statement; connection problems are not the model's fault
+                .onErrorResume(e -> e instanceof SQLException && !(e instanceof SQLTransientException)
+                        && !(e instanceof SQLNonTransientConnectionException), e -> {
+                    LOG.warn("ClickHouse EXPLAIN ESTIMATE failed on attempt {}: {}", attempt.number() + 1, e.getMessage());
+                    metrics.retry("explain failed");
+                    return Mono.just(attempt.repair(gen, "ClickHouse rejected the query: " + e.getMessage(), candidates));
+                });
+    }
 
-        String rawSql = sqlMono.block(); // Block for simplicity; can fully async if using WebFlux controller
-        if (rawSql == null || rawSql.isBlank()) {
-            return QueryResult.error("LLM returned empty SQL");
+    /**
+     * Runs {@code call} on the run's shared ClickHouse session, queueing for a scheduler slot and
+     * checking out a connection only if the run does not hold them yet. Batch runs wait for one of the
+     * batch's connections first, then queue for a slot per statement.
+     */
+    private <T> Mono<T> inSession(QueryContext ctx, String stage, SessionCall<T> call) {
+        if (ctx.batch() != null) {
+            return ctx.batch().withConnection(lease -> scheduler.clickHouse(ctx, () -> metrics.time(stage, ctx.timings(),
+                    Mono.fromCallable(() -> lease.call(ctx.userId(), () -> clickHouse.openSession(ctx.userId()), call))
+                            .subscribeOn(jdbcScheduler))));
         }
+        SharedSession shared = ctx.session();
+        Mono<ClickHouseSession> session = Mono.defer(() -> {
+            ClickHouseSession open = shared.current();
+            if (open != null) return Mono.just(open);
+            return scheduler.clickHousePermit(ctx).flatMap(permit -> {
+                shared.hold(permit);
+                return Mono.fromCallable(() -> shared.attach(clickHouse.openSession(ctx.userId())))
+                        .subscribeOn(jdbcScheduler);
+            });
+        });
+        return session.flatMap(s -> metrics.time(stage, ctx.timings(), Mono.fromCallable(() -> {
+            shared.enter();
+            try {
+                return call.apply(s);
+            } finally {
+                shared.exit();
+            }
+        }).subscribeOn(jdbcScheduler)));
+    }
 
-        var vr = validator.validate(rawSql, candidates);
-        if (!vr.valid()) {
-            LOG.warn("Validation failed on attempt {}: {}", attempt + 1, vr.message());
-            String repairPrompt = PromptBuilder.buildRepairPrompt(rawSql, vr.message(), candidates);
-            return attemptGenerateAndValidate(repairPrompt, candidates, attempt + 1);
+    @FunctionalInterface
+    interface SessionCall<T> {
+        T apply(ClickHouseSession session) throws Exception;
+    }
+
+    private record Attempt(int number, String prompt, SqlPlan plan) {
+        static Attempt first(String prompt) {
+            return new Attempt(0, prompt, null);
         }
 
-        // Optional: Check ClickHouse EXPLAIN SYNTAX
-        if (!clickHouse.validateSyntax(vr.sql())) {
-            LOG.warn("ClickHouse EXPLAIN failed on attempt {} for SQL: {}", attempt + 1, vr.sql());
-            String repairPrompt = PromptBuilder.buildRepairPrompt(rawSql, "ClickHouse syntax invalid", candidates);
-            return attemptGenerateAndValidate(repairPrompt, candidates, attempt + 1);
+        // same schema prefix as the first prompt, which Ollama still has in its KV cache
+        Attempt repair(OllamaClient.Generation previous, String error, List<TableMeta> candidates) {
+            return new Attempt(number + 1, PromptBuilder.buildRepairPrompt(previous.sql(), error, candidates), null);
         }
 
-        // SQL is valid, execute
-        List<java.util.Map<String, Object>> rows = clickHouse.executeReadOnly(vr.sql());
-        return QueryResult.ok(rows);
+        Attempt settle(SqlPlan result) {
+            return new Attempt(number, prompt, result);
+        }
     }
-}
\ No newline at end of file
+}
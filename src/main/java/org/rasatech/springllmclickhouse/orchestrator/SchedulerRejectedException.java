@@ -0,0 +1,10 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+/**
+ * Thrown by {@link FairScheduler} when a stage's wait queue, or the user's share of it, is full.
+ */
+public class SchedulerRejectedException extends RuntimeException {
+    public SchedulerRejectedException(String message) {
+        super(message);
+    }
+}
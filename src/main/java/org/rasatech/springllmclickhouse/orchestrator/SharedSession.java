@@ -0,0 +1,65 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import org.rasatech.springllmclickhouse.service.ClickHouseSession;
+
+/**
+ * The ClickHouse scheduler slot and connection of one pipeline run. Both are taken together on
+ * first use and kept for the server-side checks and the execution that follows them, so a request
+ * queues for the scheduler and checks out a connection once. {@link #release()} gives both back
+ * before the run waits on the LLM again; {@link #close()} when the run ends. A release requested
+ * while a statement is running (a cancelled request) takes effect when the statement returns.
+ */
+final class SharedSession {
+    private FairScheduler.Permit permit;
+    private ClickHouseSession session;
+    private int inUse;
+    private boolean releasePending;
+    private boolean closed;
+
+    synchronized ClickHouseSession current() {
+        return releasePending ? null : session;
+    }
+
+    synchronized void hold(FairScheduler.Permit permit) {
+        if (closed) {
+            permit.release();
+            throw new IllegalStateException("Query run already finished");
+        }
+        this.permit = permit;
+    }
+
+    // the run may have ended (e.g. cancelled) while the connection was being checked out
+    synchronized ClickHouseSession attach(ClickHouseSession session) {
+        if (closed) {
+            session.close();
+            throw new IllegalStateException("Query run already finished");
+        }
+        this.session = session;
+        return session;
+    }
+
+    synchronized void enter() {
+        inUse++;
+    }
+
+    synchronized void exit() {
+        if (--inUse == 0 && releasePending) release();
+    }
+
+    synchronized void release() {
+        if (inUse > 0) {
+            releasePending = true;
+            return;
+        }
+        if (session != null) session.close();
+        if (permit != null) permit.release();
+        session = null;
+        permit = null;
+        releasePending = false;
+    }
+
+    synchronized void close() {
+        closed = true;
+        release();
+    }
+}
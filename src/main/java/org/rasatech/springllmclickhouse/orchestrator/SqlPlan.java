@@ -0,0 +1,27 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import java.util.Set;
+
+/**
+ * Outcome of resolving a natural-language question: either validated SQL (freshly generated or
+ * taken from the translation cache) with the tables it reads and whether its result may be cached,
+ * or an error message.
+ */
+public record SqlPlan(String sql, String error, String cacheKey, boolean cached, Set<String> tables,
+                      boolean deterministic) {
+    public static SqlPlan generated(String sql, String cacheKey, Set<String> tables, boolean deterministic) {
+        return new SqlPlan(sql, null, cacheKey, false, tables, deterministic);
+    }
+
+    public static SqlPlan cached(String sql, String cacheKey, Set<String> tables, boolean deterministic) {
+        return new SqlPlan(sql, null, cacheKey, true, tables, deterministic);
+    }
+
+    public static SqlPlan error(String msg) {
+        return new SqlPlan(null, msg, null, false, Set.of(), true);
+    }
+
+    public boolean ok() {
+        return sql != null;
+    }
+}
@@ -1,9 +1,14 @@
 package org.rasatech.springllmclickhouse.service;
 
-
+import org.rasatech.springllmclickhouse.dto.ColumnMeta;
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.ResolvableType;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
 
@@ -11,34 +16,85 @@ import java.util.*;
 public class ClickHouseService {
     private final DataSource ds;
     private final int queryTimeoutSeconds;
+    private final int streamFetchSize;
+    private final Map<String, Object> defaultSettings;
+    private final Map<String, Map<String, Object>> userSettings;
+    private final String defaultSettingsKey;
+    private final Map<String, String> userSettingsKeys;
+
+    /**
+     * Consumes a live {@link ResultSet}; an {@link IOException} means the downstream client went away.
+     */
+    @FunctionalInterface
+    public interface ResultSetHandler {
+        void handle(ResultSet rs) throws SQLException, IOException;
+    }
 
     public ClickHouseService(DataSource ds, org.springframework.core.env.Environment env) {
         this.ds = ds;
         this.queryTimeoutSeconds = Integer.parseInt(env.getProperty("clickhouse.query-timeout-seconds", "30"));
+        this.streamFetchSize = Integer.parseInt(env.getProperty("clickhouse.stream-fetch-size", "1000"));
+        Binder binder = Binder.get(env);
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("max_result_rows", "100000");
+        defaults.put("max_execution_time", String.valueOf(queryTimeoutSeconds));
+        defaults.putAll(binder.bind("clickhouse.settings", Bindable.mapOf(String.class, String.class)).orElse(Map.of()));
+        this.defaultSettings = typed(defaults);
+        Map<String, Map<String, Object>> perUser = new HashMap<>();
+        binder.bind("clickhouse.user-settings", Bindable.<Map<String, Map<String, String>>>of(
+                        ResolvableType.forClassWithGenerics(Map.class, ResolvableType.forClass(String.class),
+                                ResolvableType.forClassWithGenerics(Map.class, String.class, String.class))))
+                .orElse(Map.of())
+                .forEach((user, overrides) -> {
+                    Map<String, String> merged = new LinkedHashMap<>(defaults);
+                    merged.putAll(overrides);
+                    perUser.put(user, typed(merged));
+                });
+        this.userSettings = Map.copyOf(perUser);
+        this.defaultSettingsKey = settingsKey(defaultSettings);
+        Map<String, String> keys = new HashMap<>();
+        perUser.forEach((user, settings) -> keys.put(user, settingsKey(settings)));
+        this.userSettingsKeys = Map.copyOf(keys);
     }
 
-    public List<Map<String, Object>> executeReadOnly(String sql) {
-        try (Connection conn = ds.getConnection();
-             Statement st = conn.createStatement()) {
-            // Optional: set ClickHouse session settings for resource limits
-            try {
-                st.execute("SET max_result_rows = 100000");
-            } catch (Exception ignored) {
-            }
-            try {
-                st.execute("SET max_execution_time = 30");
-            } catch (Exception ignored) {
-            }
-            st.setQueryTimeout(queryTimeoutSeconds);
-            try (ResultSet rs = st.executeQuery(sql)) {
-                return toList(rs);
-            }
+    /**
+     * Checks out a connection for a sequence of statements run on behalf of {@code userId}; their
+     * resource limits are {@code clickhouse.settings} overridden by {@code clickhouse.user-settings.<userId>}.
+     */
+    public ClickHouseSession openSession(String userId) throws SQLException {
+        return new ClickHouseSession(ds.getConnection(), settingsFor(userId), queryTimeoutSeconds, streamFetchSize);
+    }
+
+    public Map<String, Object> settingsFor(String userId) {
+        if (userId == null) return defaultSettings;
+        return userSettings.getOrDefault(userId, defaultSettings);
+    }
+
+    /**
+     * Identifies the effective settings of {@code userId}: equal for users whose queries run with the
+     * same limits, so results and in-flight runs can be shared between them and no one else.
+     */
+    public String settingsKey(String userId) {
+        if (userId == null) return defaultSettingsKey;
+        return userSettingsKeys.getOrDefault(userId, defaultSettingsKey);
+    }
+
+    private static String settingsKey(Map<String, Object> settings) {
+        return new TreeMap<>(settings).toString();
+    }
+
+    /**
+     * See {@link ClickHouseSession#stream}.
+     */
+    public void streamReadOnly(String sql, String userId, ResultSetHandler handler) {
+        try (ClickHouseSession session = openSession(userId)) {
+            session.stream(sql, handler);
         } catch (SQLException e) {
             throw new RuntimeException("ClickHouse exec error: " + e.getMessage(), e);
         }
     }
 
-    private List<Map<String, Object>> toList(ResultSet rs) throws SQLException {
+    static List<Map<String, Object>> toList(ResultSet rs) throws SQLException {
         List<Map<String, Object>> rows = new ArrayList<>();
         ResultSetMetaData md = rs.getMetaData();
         int cols = md.getColumnCount();
@@ -52,16 +108,117 @@ public class ClickHouseService {
         return rows;
     }
 
-    // ✅ Add this method to validate ClickHouse syntax
-    public boolean validateSyntax(String sql) {
-        try (Connection conn = ds.getConnection();
-             Statement st = conn.createStatement()) {
-            st.executeQuery("EXPLAIN SYNTAX " + sql);
-            return true;
-        } catch (SQLException e) {
-            // Log warning but don't throw exception
-            System.out.println("ClickHouse syntax validation failed: " + e.getMessage());
-            return false;
+    private static List<ColumnMeta> columns(ResultSetMetaData md) throws SQLException {
+        int cols = md.getColumnCount();
+        List<ColumnMeta> out = new ArrayList<>(cols);
+        for (int i = 1; i <= cols; i++) {
+            out.add(new ColumnMeta(md.getColumnLabel(i), md.getColumnTypeName(i)));
+        }
+        return out;
+    }
+
+    static QueryResult toCompact(ResultSet rs) throws SQLException {
+        List<ColumnMeta> header = columns(rs.getMetaData());
+        int cols = header.size();
+        List<Object[]> rows = new ArrayList<>();
+        while (rs.next()) {
+            Object[] row = new Object[cols];
+            for (int i = 0; i < cols; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            rows.add(row);
+        }
+        return QueryResult.compact(header, rows);
+    }
+
+    static QueryResult toColumnar(ResultSet rs) throws SQLException {
+        List<ColumnMeta> header = columns(rs.getMetaData());
+        int cols = header.size();
+        ColumnBuffer[] buffers = new ColumnBuffer[cols];
+        for (int i = 0; i < cols; i++) {
+            buffers[i] = ColumnBuffer.forType(header.get(i).type());
+        }
+        int n = 0;
+        while (rs.next()) {
+            for (int i = 0; i < cols; i++) {
+                buffers[i].read(rs, i + 1, n);
+            }
+            n++;
+        }
+        List<Object> data = new ArrayList<>(cols);
+        for (ColumnBuffer b : buffers) {
+            data.add(b.toArray(n));
+        }
+        return QueryResult.columnar(header, data);
+    }
+
+    /**
+     * Growable per-column storage; non-nullable integer and float columns are kept as primitive arrays.
+     */
+    private abstract static class ColumnBuffer {
+        static ColumnBuffer forType(String chType) {
+            String t = chType == null ? "" : chType;
+            if (t.startsWith("LowCardinality(")) t = t.substring("LowCardinality(".length(), t.length() - 1);
+            return switch (t) {
+                case "Int8", "Int16", "Int32", "Int64", "UInt8", "UInt16", "UInt32" -> new LongBuffer();
+                case "Float32", "Float64" -> new DoubleBuffer();
+                default -> new ObjectBuffer();
+            };
+        }
+
+        abstract void read(ResultSet rs, int col, int row) throws SQLException;
+
+        abstract Object toArray(int size);
+    }
+
+    private static final class LongBuffer extends ColumnBuffer {
+        private long[] values = new long[64];
+
+        void read(ResultSet rs, int col, int row) throws SQLException {
+            if (row == values.length) values = Arrays.copyOf(values, row * 2);
+            values[row] = rs.getLong(col);
         }
+
+        Object toArray(int size) {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class DoubleBuffer extends ColumnBuffer {
+        private double[] values = new double[64];
+
+        void read(ResultSet rs, int col, int row) throws SQLException {
+            if (row == values.length) values = Arrays.copyOf(values, row * 2);
+            values[row] = rs.getDouble(col);
+        }
+
+        Object toArray(int size) {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class ObjectBuffer extends ColumnBuffer {
+        private Object[] values = new Object[64];
+
+        void read(ResultSet rs, int col, int row) throws SQLException {
+            if (row == values.length) values = Arrays.copyOf(values, row * 2);
+            values[row] = rs.getObject(col);
+        }
+
+        Object toArray(int size) {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // numbers go out unquoted; anything else as a string literal ClickHouse converts to the setting's type
+    private static Map<String, Object> typed(Map<String, String> raw) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        raw.forEach((k, v) -> {
+            if (v == null) return;
+            if (v.matches("-?\\d+")) out.put(k, Long.parseLong(v));
+            else if (v.matches("-?\\d*\\.\\d+")) out.put(k, Double.parseDouble(v));
+            else out.put(k, v);
+        });
+        return Collections.unmodifiableMap(out);
     }
 }
\ No newline at end of file
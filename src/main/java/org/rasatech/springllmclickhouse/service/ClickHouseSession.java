@@ -0,0 +1,137 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
+import org.rasatech.springllmclickhouse.util.QuerySettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One pooled connection, checked out once and used for every statement of a request: the
+ * {@code EXPLAIN} checks and the query itself. Resource limits travel with each query as a
+ * {@code SETTINGS} clause, so there are no {@code SET} round trips and nothing lingers on the
+ * connection after it goes back to the pool. Not thread-safe; close exactly once.
+ */
+public final class ClickHouseSession implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ClickHouseSession.class);
+
+    private final Connection conn;
+    private final Map<String, Object> settings;
+    private final int queryTimeoutSeconds;
+    private final int streamFetchSize;
+    private boolean closed;
+
+    ClickHouseSession(Connection conn, Map<String, Object> settings, int queryTimeoutSeconds, int streamFetchSize) {
+        this.conn = conn;
+        this.settings = settings;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.streamFetchSize = streamFetchSize;
+    }
+
+    /**
+     * Runs {@code EXPLAIN ESTIMATE} and sums the parts, rows and marks ClickHouse expects to read.
+     * Tables that are not MergeTree report nothing and count as free. An {@link SQLException} means
+     * ClickHouse rejected the statement itself.
+     */
+    public QueryCost estimate(String sql) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("EXPLAIN ESTIMATE " + sql)) {
+            long parts = 0, rows = 0, marks = 0;
+            while (rs.next()) {
+                parts += rs.getLong("parts");
+                rows += rs.getLong("rows");
+                marks += rs.getLong("marks");
+            }
+            return new QueryCost(parts, rows, marks);
+        }
+    }
+
+    public boolean validateSyntax(String sql) {
+        try (Statement st = conn.createStatement()) {
+            st.executeQuery("EXPLAIN SYNTAX " + sql);
+            return true;
+        } catch (SQLException e) {
+            LOG.warn("ClickHouse syntax validation failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    public List<Map<String, Object>> executeReadOnly(String sql) {
+        try (Statement st = statement();
+             ResultSet rs = st.executeQuery(limited(sql))) {
+            return ClickHouseService.toList(rs);
+        } catch (SQLException e) {
+            throw new RuntimeException("ClickHouse exec error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Executes and materializes the result in the requested shape. COMPACT and COLUMNAR
+     * never build a map per row.
+     */
+    public QueryResult execute(String sql, ResultFormat format) {
+        if (format == ResultFormat.ROWS) {
+            return QueryResult.ok(executeReadOnly(sql));
+        }
+        try (Statement st = statement();
+             ResultSet rs = st.executeQuery(limited(sql))) {
+            return format == ResultFormat.COMPACT ? ClickHouseService.toCompact(rs) : ClickHouseService.toColumnar(rs);
+        } catch (SQLException e) {
+            throw new RuntimeException("ClickHouse exec error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the query and hands the open cursor to {@code handler} without buffering rows.
+     * If the handler fails with an {@link IOException} the statement is cancelled so
+     * ClickHouse stops the query, and an {@link UncheckedIOException} is thrown.
+     */
+    public void stream(String sql, ClickHouseService.ResultSetHandler handler) {
+        try (Statement st = statement()) {
+            st.setFetchSize(streamFetchSize);
+            try (ResultSet rs = st.executeQuery(limited(sql))) {
+                handler.handle(rs);
+            } catch (IOException e) {
+                cancelQuietly(st);
+                throw new UncheckedIOException("Client disconnected, query cancelled", e);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("ClickHouse exec error: " + e.getMessage(), e);
+        }
+    }
+
+    // settings already on the query (cost rewrite, query cache) win over the defaults
+    String limited(String sql) {
+        return QuerySettings.append(sql, settings);
+    }
+
+    private Statement statement() throws SQLException {
+        Statement st = conn.createStatement();
+        st.setQueryTimeout(queryTimeoutSeconds);
+        return st;
+    }
+
+    private static void cancelQuietly(Statement st) {
+        try {
+            st.cancel();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            LOG.debug("Closing ClickHouse connection failed: {}", e.getMessage());
+        }
+    }
+}
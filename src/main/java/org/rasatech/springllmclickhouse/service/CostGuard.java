@@ -0,0 +1,95 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.rasatech.springllmclickhouse.util.QuerySettings;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Budgets for what a generated query may read, checked against {@code EXPLAIN ESTIMATE} before it
+ * runs. Off by default ({@code cost.enabled}): the estimate is a ClickHouse round trip for every
+ * generated query, including those the local validator would otherwise pass without one. A budget
+ * of 0 is unlimited. {@code cost.on-exceed} decides what happens to a query over budget:
+ * <ul>
+ *   <li>{@code reject}: fail the request</li>
+ *   <li>{@code repair}: send the estimate back to the LLM as a repair error</li>
+ *   <li>{@code rewrite}: run it with {@code max_rows_to_read} at the row budget and
+ *       {@code read_overflow_mode = 'break'}, returning a partial result marked as such. Only the
+ *       row budget can be capped this way; a query over the marks or parts budget alone is repaired</li>
+ * </ul>
+ */
+@Component
+public class CostGuard {
+
+    public enum OnExceed {REJECT, REPAIR, REWRITE}
+
+    private final boolean enabled;
+    private final long maxRows;
+    private final long maxMarks;
+    private final long maxParts;
+    private final OnExceed onExceed;
+
+    public CostGuard(Environment env) {
+        this.enabled = Boolean.parseBoolean(env.getProperty("cost.enabled", "false"));
+        this.maxRows = Long.parseLong(env.getProperty("cost.max-rows", "500000000"));
+        this.maxMarks = Long.parseLong(env.getProperty("cost.max-marks", "0"));
+        this.maxParts = Long.parseLong(env.getProperty("cost.max-parts", "0"));
+        this.onExceed = OnExceed.valueOf(env.getProperty("cost.on-exceed", "repair").trim().toUpperCase(Locale.ROOT));
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * What to do with {@code cost}, which {@link #check} found over budget: {@link OnExceed#REWRITE}
+     * falls back to {@link OnExceed#REPAIR} unless the row budget is among the exceeded ones, as
+     * capping rows read would leave the query unchanged.
+     */
+    public OnExceed onExceed(QueryCost cost) {
+        if (onExceed == OnExceed.REWRITE && !(maxRows > 0 && cost.rows() > maxRows)) return OnExceed.REPAIR;
+        return onExceed;
+    }
+
+    /**
+     * Null when {@code cost} is within every budget, otherwise a message naming the exceeded budget,
+     * phrased so it can go straight into a repair prompt.
+     */
+    public String check(QueryCost cost) {
+        if (maxRows > 0 && cost.rows() > maxRows) {
+            return "Query too expensive: estimated " + cost.rows() + " rows to read, budget " + maxRows
+                    + ". Filter on the table's primary key or partition columns, narrow the time range, or pre-aggregate.";
+        }
+        if (maxMarks > 0 && cost.marks() > maxMarks) {
+            return "Query too expensive: estimated " + cost.marks() + " marks to read, budget " + maxMarks
+                    + ". Add selective filters on primary key columns.";
+        }
+        if (maxParts > 0 && cost.parts() > maxParts) {
+            return "Query too expensive: touches " + cost.parts() + " parts, budget " + maxParts
+                    + ". Restrict the partition range.";
+        }
+        return null;
+    }
+
+    /**
+     * {@code sql} capped to the row budget; only meaningful for {@link OnExceed#REWRITE}.
+     */
+    public String rewrite(String sql) {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("max_rows_to_read", maxRows);
+        settings.put("read_overflow_mode", "break");
+        return QuerySettings.append(sql, settings);
+    }
+
+    /**
+     * Message to attach to a result of {@link #rewrite rewritten} SQL, null for anything else.
+     */
+    public String notice(String sql) {
+        return QuerySettings.has(sql, "read_overflow_mode")
+                ? "Partial result: reading was capped at the cost budget of " + maxRows + " rows"
+                : null;
+    }
+}
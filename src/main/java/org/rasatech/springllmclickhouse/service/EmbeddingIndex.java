@@ -0,0 +1,418 @@
+package org.rasatech.springllmclickhouse.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Nearest-neighbour index over table descriptions embedded with Ollama's {@code /api/embeddings}.
+ * <p>
+ * Each table is described as natural text (identifiers split into words) and embedded once; vectors
+ * are unit-normalized and stored back to back in one {@code float[]}, so cosine similarity is a dot
+ * product over a contiguous stripe. Search is an exact scan, which stays in the low milliseconds for
+ * tens of thousands of tables. The index is written to a memory-mapped file keyed by table name and
+ * description hash; after a restart or schema change only new or changed tables are re-embedded.
+ */
+@Slf4j
+@Service
+public class EmbeddingIndex {
+
+    private static final int MAGIC = 0x53454d42; // "SEMB"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_COLUMNS_DESCRIBED = 200;
+    private static final Pattern CAMEL = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])");
+
+    private final OllamaBackendPool pool;
+    private final boolean enabled;
+    private final String model;
+    private final Path file;
+    private final int concurrency;
+    private final Duration timeout;
+    private final AtomicInteger nextBackend = new AtomicInteger();
+
+    private volatile Vectors vectors = Vectors.EMPTY;
+    private Disposable build; // guarded by this
+
+    @Autowired
+    public EmbeddingIndex(OllamaBackendPool pool, Environment env) {
+        this(pool,
+                !"keyword".equalsIgnoreCase(env.getProperty("schema.retrieval", "keyword")),
+                env.getProperty("schema.embedding.model", "nomic-embed-text"),
+                Path.of(env.getProperty("schema.embedding.index-file", "data/schema-embeddings.bin")),
+                Integer.parseInt(env.getProperty("schema.embedding.concurrency", "2")),
+                Duration.ofSeconds(Long.parseLong(env.getProperty("schema.embedding.timeout-seconds", "30"))));
+    }
+
+    public EmbeddingIndex(OllamaBackendPool pool, boolean enabled, String model, Path file, int concurrency,
+                          Duration timeout) {
+        this.pool = pool;
+        this.enabled = enabled;
+        this.model = model;
+        this.file = file;
+        this.concurrency = Math.max(1, concurrency);
+        this.timeout = timeout;
+        if (enabled) {
+            this.vectors = load();
+        }
+    }
+
+    /**
+     * An index that never embeds anything; retrieval stays keyword-only.
+     */
+    public static EmbeddingIndex disabled() {
+        return new EmbeddingIndex(null, false, "", Path.of(""), 1, Duration.ZERO);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * True once there are vectors to search, possibly from a previous schema while a rebuild runs.
+     */
+    public boolean ready() {
+        return enabled && vectors.size() > 0;
+    }
+
+    /**
+     * Brings the index in line with {@code tables} in the background: vectors of tables whose
+     * description is unchanged are kept, the rest are embedded, then the file is rewritten.
+     * A newer call supersedes a rebuild still in progress.
+     */
+    public void update(List<TableMeta> tables) {
+        if (!enabled) return;
+        Vectors current = vectors;
+        Map<String, Integer> known = current.positions();
+
+        String[] keys = new String[tables.size()];
+        long[] hashes = new long[tables.size()];
+        List<Integer> missing = new ArrayList<>();
+        List<String> texts = new ArrayList<>(tables.size());
+        for (int i = 0; i < tables.size(); i++) {
+            TableMeta t = tables.get(i);
+            String text = describe(t);
+            keys[i] = t.fqName();
+            hashes[i] = hash(text);
+            texts.add(text);
+            Integer pos = known.get(keys[i]);
+            if (pos == null || current.hashes[pos] != hashes[i]) missing.add(i);
+        }
+        if (missing.isEmpty() && current.size() == tables.size()) return;
+
+        float[][] embedded = new float[tables.size()][];
+        for (int i = 0; i < tables.size(); i++) {
+            Integer pos = known.get(keys[i]);
+            if (pos != null && current.hashes[pos] == hashes[i]) embedded[i] = current.vector(pos);
+        }
+        log.info("Embedding {} of {} table descriptions with {}", missing.size(), tables.size(), model);
+
+        Disposable d = Flux.fromIterable(missing)
+                .flatMap(i -> embed(texts.get(i))
+                        .doOnNext(v -> embedded[i] = v)
+                        .onErrorResume(e -> {
+                            log.debug("Embedding {} failed: {}", keys[i], e.getMessage());
+                            return Mono.empty();
+                        }), concurrency)
+                .then(Mono.fromRunnable(() -> publish(keys, hashes, embedded)))
+                .subscribe(v -> {
+                }, e -> log.warn("Embedding index build failed: {}", e.getMessage()));
+        synchronized (this) {
+            if (build != null) build.dispose();
+            build = d;
+        }
+    }
+
+    private void publish(String[] keys, long[] hashes, float[][] embedded) {
+        Vectors next = Vectors.of(keys, hashes, embedded);
+        if (next.size() == 0 && keys.length > 0) {
+            // embedding model unavailable: keep whatever we had rather than persisting nothing
+            log.warn("No table could be embedded with {}, keeping the previous index", model);
+            return;
+        }
+        int skipped = keys.length - next.size();
+        vectors = next;
+        log.info("Embedding index ready: {} tables, dim {}{}", next.size(), next.dim,
+                skipped > 0 ? ", " + skipped + " failed (retried on next refresh)" : "");
+        try {
+            save(next);
+        } catch (IOException e) {
+            log.warn("Could not persist embedding index to {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Unit-length embedding of {@code text}. Calls go straight to a healthy backend rather than through
+     * a generation lease: the embedding model runs separately and requests are short.
+     */
+    public Mono<float[]> embed(String text) {
+        List<OllamaBackendPool.Backend> backends = pool.backends().stream()
+                .filter(OllamaBackendPool.Backend::healthy).toList();
+        if (backends.isEmpty()) backends = pool.backends();
+        OllamaBackendPool.Backend b = backends.get(Math.floorMod(nextBackend.getAndIncrement(), backends.size()));
+        return b.client().post()
+                .uri("/api/embeddings")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("model", model, "prompt", text, "keep_alive", pool.keepAlive()))
+                .retrieve()
+                .bodyToMono(EmbeddingResponse.class)
+                .timeout(timeout)
+                .map(r -> normalize(r.embedding()));
+    }
+
+    /**
+     * Fully-qualified names of the {@code k} tables most similar to {@code query}, best first.
+     */
+    public List<String> nearest(float[] query, int k) {
+        Vectors v = vectors;
+        if (v.size() == 0 || query.length != v.dim) return List.of();
+        int n = Math.min(k, v.size());
+        // bounded min-heap of the best n so far, by score
+        int[] heap = new int[n];
+        float[] heapScore = new float[n];
+        int size = 0;
+        for (int i = 0; i < v.size(); i++) {
+            float s = dot(v.data, i * v.dim, query, v.dim);
+            if (size < n) {
+                heap[size] = i;
+                heapScore[size] = s;
+                siftUp(heap, heapScore, size++);
+            } else if (s > heapScore[0]) {
+                heap[0] = i;
+                heapScore[0] = s;
+                siftDown(heap, heapScore, size);
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Float.compare(heapScore[b], heapScore[a]));
+        List<String> out = new ArrayList<>(size);
+        for (int i : order) out.add(v.keys[heap[i]]);
+        return out;
+    }
+
+    // four independent accumulators so the loop is not serialized on one floating-point add
+    static float dot(float[] data, int offset, float[] q, int dim) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < dim; i += 4) {
+            s0 += data[offset + i] * q[i];
+            s1 += data[offset + i + 1] * q[i + 1];
+            s2 += data[offset + i + 2] * q[i + 2];
+            s3 += data[offset + i + 3] * q[i + 3];
+        }
+        for (; i < dim; i++) s0 += data[offset + i] * q[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static void siftUp(int[] heap, float[] score, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (score[parent] <= score[i]) return;
+            swap(heap, score, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, float[] score, int size) {
+        int i = 0;
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && score[l] < score[min]) min = l;
+            if (r < size && score[r] < score[min]) min = r;
+            if (min == i) return;
+            swap(heap, score, i, min);
+            i = min;
+        }
+    }
+
+    private static void swap(int[] heap, float[] score, int a, int b) {
+        int h = heap[a];
+        heap[a] = heap[b];
+        heap[b] = h;
+        float s = score[a];
+        score[a] = score[b];
+        score[b] = s;
+    }
+
+    /**
+     * Natural-language description of a table: identifiers split into words, so "gross_amt" reads
+     * as "gross amt" and can land near "revenue".
+     */
+    static String describe(TableMeta t) {
+        StringBuilder sb = new StringBuilder("table ").append(words(t.table()))
+                .append(" in database ").append(words(t.database())).append(". columns: ");
+        List<String> cols = t.columns();
+        for (int i = 0; i < cols.size() && i < MAX_COLUMNS_DESCRIBED; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(words(cols.get(i)));
+        }
+        return sb.toString();
+    }
+
+    private static String words(String identifier) {
+        return CAMEL.matcher(identifier).replaceAll(" ").replace('_', ' ').toLowerCase(Locale.ROOT);
+    }
+
+    // FNV-1a over the description, like SchemaFingerprint
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static float[] normalize(float[] v) {
+        if (v == null || v.length == 0) throw new IllegalStateException("Empty embedding");
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        float inv = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+        return out;
+    }
+
+    // header: magic, version, dim, count, model; entries: key, description hash, vector
+    private void save(Vectors v) throws IOException {
+        byte[] modelBytes = model.getBytes(StandardCharsets.UTF_8);
+        byte[][] keyBytes = new byte[v.size()][];
+        long size = 4 * 4 + 2 + modelBytes.length;
+        for (int i = 0; i < v.size(); i++) {
+            keyBytes[i] = v.keys[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + keyBytes[i].length + 8 + 4L * v.dim;
+        }
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(v.dim).putInt(v.size());
+            buf.putShort((short) modelBytes.length).put(modelBytes);
+            for (int i = 0; i < v.size(); i++) {
+                buf.putShort((short) keyBytes[i].length).put(keyBytes[i]).putLong(v.hashes[i]);
+                buf.asFloatBuffer().put(v.data, i * v.dim, v.dim);
+                buf.position(buf.position() + 4 * v.dim);
+            }
+            buf.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Vectors load() {
+        if (!Files.isRegularFile(file)) return Vectors.EMPTY;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                log.warn("Ignoring embedding index {}: unknown format", file);
+                return Vectors.EMPTY;
+            }
+            int dim = buf.getInt();
+            int count = buf.getInt();
+            byte[] modelBytes = new byte[buf.getShort()];
+            buf.get(modelBytes);
+            if (!model.equals(new String(modelBytes, StandardCharsets.UTF_8))) {
+                log.info("Embedding model changed, re-embedding all tables");
+                return Vectors.EMPTY;
+            }
+            String[] keys = new String[count];
+            long[] hashes = new long[count];
+            float[] data = new float[count * dim];
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buf.getShort()];
+                buf.get(key);
+                keys[i] = new String(key, StandardCharsets.UTF_8);
+                hashes[i] = buf.getLong();
+                buf.asFloatBuffer().get(data, i * dim, dim);
+                buf.position(buf.position() + 4 * dim);
+            }
+            log.info("Loaded {} table embeddings from {}", count, file);
+            return new Vectors(keys, hashes, data, dim);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read embedding index {}: {}", file, e.getMessage());
+            return Vectors.EMPTY;
+        }
+    }
+
+    /**
+     * Immutable snapshot: vector {@code i} occupies {@code data[i * dim, (i + 1) * dim)}.
+     */
+    private static final class Vectors {
+        static final Vectors EMPTY = new Vectors(new String[0], new long[0], new float[0], 0);
+
+        final String[] keys;
+        final long[] hashes;
+        final float[] data;
+        final int dim;
+
+        Vectors(String[] keys, long[] hashes, float[] data, int dim) {
+            this.keys = keys;
+            this.hashes = hashes;
+            this.data = data;
+            this.dim = dim;
+        }
+
+        // drops tables whose embedding failed
+        static Vectors of(String[] keys, long[] hashes, float[][] vectors) {
+            int dim = 0;
+            int count = 0;
+            for (float[] v : vectors) {
+                if (v == null) continue;
+                if (dim == 0) dim = v.length;
+                if (v.length == dim) count++;
+            }
+            String[] k = new String[count];
+            long[] h = new long[count];
+            float[] data = new float[count * dim];
+            int j = 0;
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] == null || vectors[i].length != dim) continue;
+                k[j] = keys[i];
+                h[j] = hashes[i];
+                System.arraycopy(vectors[i], 0, data, j * dim, dim);
+                j++;
+            }
+            return new Vectors(k, h, data, dim);
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        float[] vector(int i) {
+            return Arrays.copyOfRange(data, i * dim, (i + 1) * dim);
+        }
+
+        Map<String, Integer> positions() {
+            Map<String, Integer> m = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) m.put(keys[i], i);
+            return m;
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record EmbeddingResponse(float[] embedding) {
+    }
+}
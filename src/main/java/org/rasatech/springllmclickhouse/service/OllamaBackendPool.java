@@ -0,0 +1,271 @@
+package org.rasatech.springllmclickhouse.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Routes LLM calls across one or more Ollama servers.
+ * <ul>
+ *     <li>least-outstanding-requests routing with a per-backend concurrency cap</li>
+ *     <li>bounded FIFO wait queue; requests are rejected up front when the queue is full or the
+ *     estimated wait exceeds the deadline, and time out if they are still waiting at the deadline</li>
+ *     <li>periodic health checks via {@code /api/ps}; a backend whose model is not resident gets a
+ *     warm-up request with {@code keep_alive} so the model stays pinned</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class OllamaBackendPool {
+
+    private final List<Backend> backends;
+    private final String model;
+    private final String keepAlive;
+    private final int maxWaiters;
+    private final long maxWaitMs;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private int nextStart;
+    // EWMA of how long a lease is held, used to estimate queue wait
+    private volatile double avgServiceMs = 5_000;
+
+    @Autowired
+    public OllamaBackendPool(WebClient.Builder webClientBuilder, Environment env) {
+        this(webClientBuilder,
+                Arrays.stream(env.getProperty("ollama.url", "http://localhost:11434").split(","))
+                        .map(String::trim).filter(s -> !s.isEmpty()).toList(),
+                env.getProperty("ollama.model", "sqlcoder:7b"),
+                env.getProperty("ollama.keep-alive", "30m"),
+                Integer.parseInt(env.getProperty("ollama.max-concurrency-per-backend", "2")),
+                Integer.parseInt(env.getProperty("ollama.queue.max-waiters", "100")),
+                Long.parseLong(env.getProperty("ollama.queue.max-wait-ms", "30000")));
+    }
+
+    public OllamaBackendPool(WebClient.Builder webClientBuilder, List<String> urls, String model, String keepAlive,
+                             int maxConcurrencyPerBackend, int maxWaiters, long maxWaitMs) {
+        if (urls.isEmpty()) throw new IllegalArgumentException("ollama.url must list at least one backend");
+        this.backends = urls.stream()
+                .map(u -> new Backend(u, webClientBuilder.clone().baseUrl(u).build(), maxConcurrencyPerBackend))
+                .toList();
+        this.model = model;
+        this.keepAlive = keepAlive;
+        this.maxWaiters = maxWaiters;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public String model() {
+        return model;
+    }
+
+    public String keepAlive() {
+        return keepAlive;
+    }
+
+    public List<Backend> backends() {
+        return backends;
+    }
+
+    /**
+     * Emits a lease on the least-loaded healthy backend, waiting in FIFO order if all are at capacity.
+     * Fails fast with {@link OllamaOverloadedException} when admission control rejects the request.
+     */
+    public Mono<Lease> acquire() {
+        return Mono.<Lease>create(sink -> {
+                    Waiter w;
+                    synchronized (this) {
+                        Lease lease = tryAcquire();
+                        if (lease != null) {
+                            sink.success(lease);
+                            return;
+                        }
+                        String reject = admissionCheck();
+                        if (reject != null) {
+                            sink.error(new OllamaOverloadedException(reject));
+                            return;
+                        }
+                        w = new Waiter(sink);
+                        waiters.addLast(w);
+                    }
+                    sink.onCancel(() -> {
+                        synchronized (this) {
+                            waiters.remove(w);
+                        }
+                    });
+                })
+                .timeout(Duration.ofMillis(maxWaitMs), Mono.error(() ->
+                        new OllamaOverloadedException("No Ollama capacity within " + maxWaitMs + " ms")))
+                .doOnDiscard(Lease.class, Lease::release);
+    }
+
+    private String admissionCheck() {
+        if (waiters.size() >= maxWaiters) {
+            return "Ollama wait queue full (" + maxWaiters + " waiting)";
+        }
+        int capacity = backends.stream().mapToInt(b -> b.maxConcurrency).sum();
+        double estimatedWait = (waiters.size() + 1) * avgServiceMs / Math.max(1, capacity);
+        if (estimatedWait > maxWaitMs) {
+            return "Estimated Ollama wait " + (long) estimatedWait + " ms exceeds " + maxWaitMs + " ms";
+        }
+        return null;
+    }
+
+    // caller holds the lock
+    private Lease tryAcquire() {
+        Backend best = pick(true);
+        if (best == null && backends.stream().noneMatch(b -> b.healthy)) {
+            // every backend failed its health check: keep trying rather than fail everything
+            best = pick(false);
+        }
+        if (best == null) return null;
+        best.inFlight++;
+        return new Lease(best);
+    }
+
+    private Backend pick(boolean healthyOnly) {
+        Backend best = null;
+        int n = backends.size();
+        for (int i = 0; i < n; i++) {
+            Backend b = backends.get((nextStart + i) % n);
+            if (healthyOnly && !b.healthy) continue;
+            if (b.inFlight >= b.maxConcurrency) continue;
+            if (best == null || b.inFlight < best.inFlight) best = b;
+        }
+        nextStart = (nextStart + 1) % n;
+        return best;
+    }
+
+    private void release(Lease lease) {
+        double heldMs = (System.nanoTime() - lease.startNanos) / 1e6;
+        avgServiceMs = avgServiceMs * 0.9 + heldMs * 0.1;
+        synchronized (this) {
+            lease.backend.inFlight--;
+            while (!waiters.isEmpty()) {
+                Lease next = tryAcquire();
+                if (next == null) break;
+                waiters.pollFirst().sink.success(next);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "#{${ollama.health-check-interval-seconds:15} * 1000}")
+    public void checkHealth() {
+        for (Backend b : backends) {
+            b.client.get().uri("/api/ps")
+                    .retrieve()
+                    .bodyToMono(JsonNode.class)
+                    .timeout(Duration.ofSeconds(5))
+                    .subscribe(ps -> {
+                        markHealthy(b, true);
+                        if (!modelLoaded(ps)) warmUp(b);
+                    }, e -> {
+                        log.warn("Ollama backend {} failed health check: {}", b.url, e.getMessage());
+                        markHealthy(b, false);
+                    });
+        }
+    }
+
+    /**
+     * Passive health signal from request failures; the next successful health check restores the backend.
+     */
+    public void markUnhealthy(Backend backend) {
+        markHealthy(backend, false);
+    }
+
+    private void markHealthy(Backend b, boolean healthy) {
+        if (b.healthy == healthy) return;
+        b.healthy = healthy;
+        log.info("Ollama backend {} is now {}", b.url, healthy ? "healthy" : "unhealthy");
+        if (healthy) {
+            // capacity came back: hand it to waiters
+            synchronized (this) {
+                while (!waiters.isEmpty()) {
+                    Lease next = tryAcquire();
+                    if (next == null) break;
+                    waiters.pollFirst().sink.success(next);
+                }
+            }
+        }
+    }
+
+    private boolean modelLoaded(JsonNode ps) {
+        for (JsonNode m : ps.path("models")) {
+            if (model.equals(m.path("name").asText()) || model.equals(m.path("model").asText())) return true;
+        }
+        return false;
+    }
+
+    // a generate call without a prompt just loads the model and applies keep_alive
+    private void warmUp(Backend b) {
+        log.info("Loading model {} on {}", model, b.url);
+        b.client.post().uri("/api/generate")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("model", model, "keep_alive", keepAlive))
+                .retrieve()
+                .toBodilessEntity()
+                .subscribe(r -> {
+                }, e -> log.warn("Model warm-up on {} failed: {}", b.url, e.getMessage()));
+    }
+
+    public static final class Backend {
+        private final String url;
+        private final WebClient client;
+        private final int maxConcurrency;
+        private int inFlight; // guarded by the pool lock
+        private volatile boolean healthy = true;
+
+        Backend(String url, WebClient client, int maxConcurrency) {
+            this.url = url;
+            this.client = client;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public String url() {
+            return url;
+        }
+
+        public WebClient client() {
+            return client;
+        }
+
+        public boolean healthy() {
+            return healthy;
+        }
+    }
+
+    public final class Lease {
+        private final Backend backend;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(Backend backend) {
+            this.backend = backend;
+        }
+
+        public Backend backend() {
+            return backend;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                OllamaBackendPool.this.release(this);
+            }
+        }
+    }
+
+    private record Waiter(MonoSink<Lease> sink) {
+    }
+}
@@ -1,12 +1,20 @@
 package org.rasatech.springllmclickhouse.service;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.extern.slf4j.Slf4j;
+import org.rasatech.springllmclickhouse.util.SqlFenceScanner;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -15,41 +23,113 @@ import java.util.regex.Pattern;
 @Service
 public class OllamaClient {
 
-    private final WebClient webClient;
+    // none by default: a bare "```" also opens a block ("Here is the query:\n```\nSELECT"), so a
+    // server-side stop on it can end generation before any SQL; SqlFenceScanner stops reading instead
+    private static final List<String> DEFAULT_STOP = List.of();
 
-    public OllamaClient(WebClient.Builder webClientBuilder) {
-        this.webClient = webClientBuilder.baseUrl("http://localhost:11434").build();
+    // closing fence optional: a stop sequence strips it from the output
+    private static final Pattern FENCED_SQL = Pattern.compile("```sql\\s*(.*?)\\s*(?:```|$)", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+    private static final Pattern FIRST_SELECT = Pattern.compile("(SELECT\\s+.*;)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final OllamaBackendPool pool;
+    private final Duration timeout;
+    private final int numPredict;
+    private final List<String> stop;
+
+    public OllamaClient(OllamaBackendPool pool, Environment env) {
+        this.pool = pool;
+        this.timeout = Duration.ofSeconds(Long.parseLong(env.getProperty("ollama.timeout-seconds", "120")));
+        this.numPredict = Integer.parseInt(env.getProperty("ollama.num-predict", "512"));
+        this.stop = Binder.get(env).bind("ollama.stop", Bindable.listOf(String.class)).orElse(DEFAULT_STOP);
+    }
+
+    /**
+     * Result of one generation.
+     */
+    public record Generation(String sql, Usage usage) {
+        public static Generation empty() {
+            return new Generation("", null);
+        }
+    }
+
+    /**
+     * Token counts for one generation. Taken from Ollama's final chunk when the stream ran to the end;
+     * when it was cut off early, {@code evalTokens} is the number of streamed chunks (one token each),
+     * {@code evalNanos} the time between the first and last chunk and {@code promptTokens} is -1.
+     */
+    public record Usage(int promptTokens, int evalTokens, long evalNanos) {
+        public double tokensPerSecond() {
+            return evalNanos > 0 ? evalTokens * 1e9 / evalNanos : 0;
+        }
     }
 
     public Mono<String> generateSqlAsync(String prompt) {
-        var body = Map.of(
-                "model", "sqlcoder:7b",
-                "prompt", prompt,
-                "stream", false
-        );
-
-        return webClient.post()
-                .uri("/api/generate")
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(body)
-                .retrieve()
-                .bodyToMono(String.class)
-                .timeout(Duration.ofMinutes(2))
-                .onErrorResume(e -> {
+        return generate(prompt).map(Generation::sql);
+    }
+
+    /**
+     * Streams the completion and stops reading as soon as the ```sql block is closed;
+     * cancelling the response closes the connection, which aborts generation in Ollama.
+     */
+    public Mono<Generation> generate(String prompt) {
+        var body = new LinkedHashMap<String, Object>();
+        body.put("model", pool.model());
+        body.put("prompt", prompt);
+        body.put("stream", true);
+        body.put("keep_alive", pool.keepAlive());
+        body.put("options", stop.isEmpty() ? Map.of("num_predict", numPredict) : Map.of("num_predict", numPredict, "stop", stop));
+
+        // the lease is held for the whole generation and released on completion, error or cancel
+        return Mono.usingWhen(pool.acquire(),
+                        lease -> generate(lease.backend(), body),
+                        lease -> Mono.fromRunnable(lease::release))
+                .onErrorResume(e -> !(e instanceof OllamaOverloadedException), e -> {
                     log.error("LLM async call failed", e);
                     return Mono.empty();
+                });
+    }
+
+    private Mono<Generation> generate(OllamaBackendPool.Backend backend, Map<String, Object> body) {
+        return Mono.defer(() -> {
+                    SqlFenceScanner scanner = new SqlFenceScanner();
+                    Usage[] usage = new Usage[1];
+                    long[] chunks = new long[3]; // count, first chunk nanos, last chunk nanos
+                    return backend.client().post()
+                            .uri("/api/generate")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .accept(MediaType.APPLICATION_NDJSON)
+                            .bodyValue(body)
+                            .retrieve()
+                            .bodyToFlux(GenerateChunk.class)
+                            .doOnNext(c -> {
+                                long now = System.nanoTime();
+                                if (chunks[0]++ == 0) chunks[1] = now;
+                                chunks[2] = now;
+                                if (c.done()) {
+                                    usage[0] = new Usage(c.promptEvalCount(), c.evalCount(), c.evalDuration());
+                                }
+                            })
+                            .takeUntil(c -> c.done() || scanner.append(c.response()))
+                            .then(Mono.fromSupplier(() -> new Generation(extractSql(scanner.text()),
+                                    usage[0] != null ? usage[0] : new Usage(-1, (int) chunks[0], chunks[2] - chunks[1]))));
                 })
-                .map(this::extractSql);
+                .timeout(timeout)
+                .doOnError(WebClientRequestException.class, e -> pool.markUnhealthy(backend));
     }
 
-    private String extractSql(String response) {
-        Pattern p = Pattern.compile("```sql\\s*(.*?)\\s*```", Pattern.DOTALL);
-        Matcher m = p.matcher(response);
+    static String extractSql(String response) {
+        Matcher m = FENCED_SQL.matcher(response);
         if (m.find()) return m.group(1).trim();
         // fallback: first SELECT
-        p = Pattern.compile("(SELECT\\s+.*;)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
-        m = p.matcher(response);
+        m = FIRST_SELECT.matcher(response);
         if (m.find()) return m.group(1).trim();
         return response.trim();
     }
-}
\ No newline at end of file
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record GenerateChunk(String response, boolean done,
+                         @JsonProperty("prompt_eval_count") int promptEvalCount,
+                         @JsonProperty("eval_count") int evalCount,
+                         @JsonProperty("eval_duration") long evalDuration) {
+    }
+}
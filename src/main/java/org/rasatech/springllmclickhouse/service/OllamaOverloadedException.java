@@ -0,0 +1,10 @@
+package org.rasatech.springllmclickhouse.service;
+
+/**
+ * Thrown when no Ollama backend can take a request within the configured wait budget.
+ */
+public class OllamaOverloadedException extends RuntimeException {
+    public OllamaOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package org.rasatech.springllmclickhouse.service;
+
+/**
+ * What ClickHouse expects a query to read, summed over all tables ({@code EXPLAIN ESTIMATE}).
+ */
+public record QueryCost(long parts, long rows, long marks) {
+}
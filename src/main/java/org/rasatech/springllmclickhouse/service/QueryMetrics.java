@@ -0,0 +1,204 @@
+package org.rasatech.springllmclickhouse.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters for the NL-to-SQL pipeline, exported through the actuator Prometheus endpoint.
+ * <ul>
+ *   <li>{@code nlq.stage} timer tagged {@code stage}: schema, prompt, llm, validate, repair, explain, cost, execute</li>
+ *   <li>{@code nlq.request} timer tagged {@code outcome}, {@code nlq.retries} / {@code nlq.failures} tagged {@code reason}</li>
+ *   <li>{@code nlq.translation} counter tagged {@code result} (hit / miss)</li>
+ *   <li>{@code nlq.local.repair} counter tagged {@code outcome}: saved (an LLM repair round trip avoided),
+ *       failed (rewritten but still invalid), not_applicable</li>
+ *   <li>{@code nlq.batch.size} summary, {@code nlq.batch.deduplicated} counter of questions answered by
+ *       another identical question of the same batch</li>
+ *   <li>{@code nlq.cost.estimated.rows} summary, {@code nlq.cost.exceeded} counter tagged {@code action}</li>
+ *   <li>{@code nlq.prompt.chars}, {@code nlq.rows}, {@code ollama.prompt.tokens}, {@code ollama.eval.tokens},
+ *       {@code ollama.tokens.per.second} summaries</li>
+ * </ul>
+ * Hikari pool wait time comes from the Boot-provided {@code hikaricp.connections.acquire} timer.
+ */
+@Component
+public class QueryMetrics {
+
+    public static final String SCHEMA = "schema";
+    public static final String PROMPT = "prompt";
+    public static final String LLM = "llm";
+    public static final String VALIDATE = "validate";
+    public static final String REPAIR = "repair";
+    public static final String EXPLAIN = "explain";
+    public static final String COST = "cost";
+    public static final String EXECUTE = "execute";
+
+    public enum RepairOutcome {SAVED, FAILED, NOT_APPLICABLE}
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary promptChars;
+    private final DistributionSummary rows;
+    private final DistributionSummary promptTokens;
+    private final DistributionSummary evalTokens;
+    private final DistributionSummary tokensPerSecond;
+    private final DistributionSummary estimatedRows;
+    private final DistributionSummary batchSize;
+    private final Counter batchDeduplicated;
+
+    public QueryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.promptChars = DistributionSummary.builder("nlq.prompt.chars").baseUnit("chars")
+                .description("Prompt size sent to the LLM").register(registry);
+        this.rows = DistributionSummary.builder("nlq.rows").baseUnit("rows")
+                .description("Rows returned per executed query").register(registry);
+        this.promptTokens = DistributionSummary.builder("ollama.prompt.tokens").baseUnit("tokens")
+                .description("prompt_eval_count reported by Ollama").register(registry);
+        this.evalTokens = DistributionSummary.builder("ollama.eval.tokens").baseUnit("tokens")
+                .description("Generated tokens (eval_count, or streamed chunks when cut off early)").register(registry);
+        this.tokensPerSecond = DistributionSummary.builder("ollama.tokens.per.second")
+                .description("Generation throughput").register(registry);
+        this.estimatedRows = DistributionSummary.builder("nlq.cost.estimated.rows").baseUnit("rows")
+                .description("Rows EXPLAIN ESTIMATE expects a generated query to read").register(registry);
+        this.batchSize = DistributionSummary.builder("nlq.batch.size").baseUnit("questions")
+                .description("Questions per batch request").register(registry);
+        this.batchDeduplicated = Counter.builder("nlq.batch.deduplicated")
+                .description("Batch questions served by an identical question of the same batch").register(registry);
+    }
+
+    /**
+     * Times {@code mono} from subscription to termination or cancellation, into the stage timer and
+     * into {@code timings} when given.
+     */
+    public <T> Mono<T> time(String stage, Timings timings, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            // recorded before the signal travels downstream, so the request's breakdown already has it;
+            // once only, as a consumer like next() cancels after the value already terminated the stage
+            AtomicBoolean stopped = new AtomicBoolean();
+            Runnable stop = () -> {
+                if (stopped.compareAndSet(false, true)) record(stage, timings, System.nanoTime() - start);
+            };
+            return mono.doOnTerminate(stop).doOnCancel(stop);
+        });
+    }
+
+    public <T> T time(String stage, Timings timings, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, timings, System.nanoTime() - start);
+        }
+    }
+
+    public void record(String stage, Timings timings, long nanos) {
+        stageTimers.computeIfAbsent(stage, s -> Timer.builder("nlq.stage").tag("stage", s)
+                        .description("Time spent per pipeline stage").publishPercentileHistogram().register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (timings != null) timings.add(stage, nanos);
+    }
+
+    public void request(boolean success, long nanos) {
+        Timer.builder("nlq.request").tag("outcome", success ? "success" : "failure")
+                .publishPercentileHistogram().register(registry).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void translation(boolean hit) {
+        Counter.builder("nlq.translation").tag("result", hit ? "hit" : "miss").register(registry).increment();
+    }
+
+    public void localRepair(RepairOutcome outcome) {
+        Counter.builder("nlq.local.repair").tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                .register(registry).increment();
+    }
+
+    public void retry(String reason) {
+        Counter.builder("nlq.retries").tag("reason", reasonOf(reason)).register(registry).increment();
+    }
+
+    public void failure(String reason) {
+        Counter.builder("nlq.failures").tag("reason", reasonOf(reason)).register(registry).increment();
+    }
+
+    public void batch(int questions, int distinct) {
+        batchSize.record(questions);
+        batchDeduplicated.increment(questions - distinct);
+    }
+
+    public void cost(QueryCost cost) {
+        estimatedRows.record(cost.rows());
+    }
+
+    public void costExceeded(CostGuard.OnExceed action) {
+        Counter.builder("nlq.cost.exceeded").tag("action", action.name().toLowerCase(Locale.ROOT))
+                .register(registry).increment();
+    }
+
+    public void prompt(String prompt) {
+        promptChars.record(prompt.length());
+    }
+
+    public void rows(long count) {
+        rows.record(count);
+    }
+
+    public void generation(OllamaClient.Usage usage) {
+        if (usage == null) return;
+        if (usage.promptTokens() >= 0) promptTokens.record(usage.promptTokens());
+        evalTokens.record(usage.evalTokens());
+        double tps = usage.tokensPerSecond();
+        if (tps > 0) tokensPerSecond.record(tps);
+    }
+
+    // keep tag values bounded: error messages are "<kind>: <detail>", only the kind is used
+    static String reasonOf(String message) {
+        if (message == null || message.isBlank()) return "unknown";
+        int colon = message.indexOf(':');
+        String kind = colon > 0 ? message.substring(0, colon) : message;
+        String tag = kind.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "_").replaceAll("^_|_$", "");
+        return tag.length() > 40 ? tag.substring(0, 40) : tag;
+    }
+
+    /**
+     * Per-request stage durations; retries add up into the same stage.
+     */
+    public static final class Timings {
+        private final long start = System.nanoTime();
+        // insertion order is pipeline order
+        private final Map<String, Long> nanos = new LinkedHashMap<>();
+
+        synchronized void add(String stage, long value) {
+            nanos.merge(stage, value, Long::sum);
+        }
+
+        public long elapsedNanos() {
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * Stage durations in milliseconds plus {@code total}.
+         */
+        public synchronized Map<String, Double> toMillis() {
+            Map<String, Double> out = new LinkedHashMap<>();
+            nanos.forEach((stage, v) -> out.put(stage, millis(v)));
+            out.put("total", millis(elapsedNanos()));
+            return out;
+        }
+
+        private static double millis(long nanos) {
+            return Math.round(nanos / 10_000.0) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.rasatech.springllmclickhouse.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
+import org.rasatech.springllmclickhouse.util.QuerySettings;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.reflect.Array;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches query results keyed by canonical validated SQL, result format and the effective ClickHouse
+ * settings of the user ({@link ClickHouseService#settingsKey}), so different phrasings that resolve
+ * to the same SQL hit ClickHouse once, and a result cut off by one user's limits is not served to another.
+ * <p>
+ * {@code result-cache.mode}:
+ * <ul>
+ *   <li>{@code local}: in-process Caffeine cache bounded by estimated result bytes, with a TTL. A
+ *       poll of {@code system.tables} / {@code system.parts} drops entries as soon as a table they
+ *       read gets new parts, loses parts or changes definition.</li>
+ *   <li>{@code clickhouse}: nothing is kept here; the SQL is sent with {@code use_query_cache = 1}
+ *       and ClickHouse serves repeats from its own cache (TTL only, no invalidation on insert).</li>
+ *   <li>{@code off}</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class ResultCache {
+
+    public enum Mode {LOCAL, CLICKHOUSE, OFF}
+
+    // %1$s: ('db', 'table') tuples, so system.parts is only read for the tables of cached results
+    private static final String VERSIONS_SQL = """
+            SELECT t.database AS database, t.name AS name,
+                   concat(toString(t.metadata_modification_time), '|', toString(p.modified), '|',
+                          toString(p.parts), '|', toString(p.rows)) AS version
+            FROM system.tables AS t
+            LEFT JOIN (SELECT database, table, max(modification_time) AS modified, count() AS parts, sum(rows) AS rows
+                       FROM system.parts
+                       WHERE active AND (database, table) IN (%1$s)
+                       GROUP BY database, table) AS p ON p.database = t.database AND p.table = t.name
+            WHERE (t.database, t.name) IN (%1$s)""";
+
+    private final JdbcTemplate jdbc;
+    private final Mode mode;
+    private final int ttlSeconds;
+    private final long maxEntryBytes;
+    private final Cache<String, Entry> cache;
+    private final Map<String, Object> queryCacheSettings = new LinkedHashMap<>();
+
+    // table -> last seen version; table -> poll generation in which it last changed
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+    private final Map<String, Long> changedAt = new ConcurrentHashMap<>();
+    // tables of results not stored because no version was known for them yet; the next poll learns it
+    private final Set<String> unversioned = ConcurrentHashMap.newKeySet();
+    private final AtomicLong generation = new AtomicLong();
+
+    private record Entry(QueryResult result, Set<String> tables) {
+    }
+
+    public ResultCache(JdbcTemplate jdbc, MeterRegistry registry, Environment env) {
+        this.jdbc = jdbc;
+        this.mode = Mode.valueOf(env.getProperty("result-cache.mode", "local").trim().toUpperCase(Locale.ROOT));
+        this.ttlSeconds = Integer.parseInt(env.getProperty("result-cache.ttl-seconds", "300"));
+        long maxBytes = Long.parseLong(env.getProperty("result-cache.max-size-mb", "64")) << 20;
+        this.maxEntryBytes = maxBytes / 10;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String k, Entry e) -> (int) Math.min(Integer.MAX_VALUE, k.length() * 2L + weigh(e.result())))
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "result");
+        queryCacheSettings.put("use_query_cache", 1);
+        queryCacheSettings.put("query_cache_ttl", ttlSeconds);
+        // queries with now()/today() are run but not stored instead of failing
+        queryCacheSettings.put("query_cache_nondeterministic_function_handling", "ignore");
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * The SQL to send to ClickHouse: in {@code clickhouse} mode with the query cache settings appended.
+     */
+    public String decorate(String sql) {
+        if (mode != Mode.CLICKHOUSE) return sql;
+        return QuerySettings.append(sql, queryCacheSettings);
+    }
+
+    public QueryResult get(String sql, String settingsKey, ResultFormat format) {
+        if (mode != Mode.LOCAL) return null;
+        Entry e = cache.getIfPresent(key(sql, settingsKey, format));
+        return e == null ? null : e.result();
+    }
+
+    /**
+     * Current poll generation; take it before executing and pass it to {@link #put}.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stores {@code result} unless one of {@code tables} was seen changing after {@code startGeneration},
+     * i.e. while the query was running, or has not been polled yet: a change between the query and the
+     * first poll of a table would go unnoticed, so its first result is not kept.
+     */
+    public void put(String sql, String settingsKey, ResultFormat format, Set<String> tables, long startGeneration, QueryResult result) {
+        if (mode != Mode.LOCAL || !result.success() || tables.isEmpty()) return;
+        boolean versioned = true;
+        for (String t : tables) {
+            if (changedAt.getOrDefault(t, 0L) > startGeneration) return;
+            if (!versions.containsKey(t)) {
+                unversioned.add(t);
+                versioned = false;
+            }
+        }
+        if (!versioned) return;
+        if (weigh(result) > maxEntryBytes) return;
+        cache.put(key(sql, settingsKey, format), new Entry(result, tables));
+    }
+
+    public void invalidateTables(Collection<String> tables) {
+        if (tables.isEmpty()) return;
+        Set<String> changed = Set.copyOf(tables);
+        cache.asMap().values().removeIf(e -> !Collections.disjoint(e.tables(), changed));
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    /**
+     * Checks the tables of cached results for new, lost or altered parts and drops the entries that read
+     * a changed one. Nothing is queried while no result is cached. A table that went unpolled while it
+     * had no entries keeps its last version, so a change in the meantime still shows up, at worst
+     * dropping an entry stored since.
+     */
+    @Scheduled(fixedDelayString = "#{${result-cache.poll-interval-seconds:5} * 1000}")
+    public void pollTableVersions() {
+        if (mode != Mode.LOCAL) return;
+        Set<String> watched = new HashSet<>(unversioned);
+        for (Entry e : cache.asMap().values()) watched.addAll(e.tables());
+        if (watched.isEmpty()) return;
+
+        Map<String, String> current = new HashMap<>();
+        try {
+            for (var r : jdbc.queryForList(VERSIONS_SQL.formatted(tupleList(watched)))) {
+                current.put(r.get("database") + "." + r.get("name"), String.valueOf(r.get("version")));
+            }
+        } catch (Exception e) {
+            log.warn("Result cache poll failed, clearing cache: {}", e.getMessage());
+            cache.invalidateAll();
+            return;
+        }
+
+        long gen = generation.incrementAndGet();
+        List<String> changed = new ArrayList<>();
+        for (String t : watched) {
+            String now = current.get(t);
+            if (now == null) {
+                // dropped or renamed
+                if (versions.remove(t) != null) changed.add(t);
+                changedAt.remove(t);
+                continue;
+            }
+            String previous = versions.put(t, now);
+            if (previous == null) {
+                // baseline: results of queries that started before it are not known to be current
+                changedAt.put(t, gen);
+            } else if (!previous.equals(now)) {
+                changedAt.put(t, gen);
+                changed.add(t);
+            }
+        }
+        unversioned.removeAll(watched);
+
+        if (!changed.isEmpty()) {
+            long before = cache.estimatedSize();
+            invalidateTables(changed);
+            log.debug("{} table(s) changed, result cache {} -> {} entries", changed.size(), before, cache.estimatedSize());
+        }
+    }
+
+    // ('db', 'table'), ... for the given db.table names
+    private static String tupleList(Collection<String> tables) {
+        StringJoiner out = new StringJoiner(", ");
+        for (String t : tables) {
+            int dot = t.indexOf('.');
+            out.add("(" + literal(t.substring(0, dot)) + ", " + literal(t.substring(dot + 1)) + ")");
+        }
+        return out.toString();
+    }
+
+    private static String literal(String s) {
+        return "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    private static String key(String sql, String settingsKey, ResultFormat format) {
+        return format + "|" + settingsKey + "|" + sql;
+    }
+
+    // rough retained-size estimate; only has to be proportional for eviction to be fair
+    static long weigh(QueryResult r) {
+        long bytes = 64;
+        if (r.rows() != null) {
+            for (Map<String, Object> row : r.rows()) {
+                bytes += 48;
+                for (var e : row.entrySet()) bytes += 40 + weighValue(e.getValue());
+            }
+        }
+        if (r.data() != null) {
+            for (Object o : r.data()) {
+                if (o == null) continue;
+                if (o instanceof Object[] arr) {
+                    bytes += 16 + 8L * arr.length;
+                    for (Object v : arr) bytes += weighValue(v);
+                } else if (o.getClass().isArray()) {
+                    bytes += 16 + 8L * Array.getLength(o);
+                } else {
+                    bytes += weighValue(o);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long weighValue(Object v) {
+        if (v == null) return 0;
+        if (v instanceof CharSequence s) return 40 + 2L * s.length();
+        if (v instanceof Number || v instanceof Boolean) return 16;
+        return 48;
+    }
+}
@@ -0,0 +1,7 @@
+package org.rasatech.springllmclickhouse.service;
+
+/**
+ * Published by {@link SchemaService} whenever a freshly loaded schema snapshot differs from the previous one.
+ */
+public record SchemaChangedEvent(long version, String fingerprint) {
+}
@@ -0,0 +1,248 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.*;
+
+/**
+ * Immutable inverted index over table and column names, built once per schema snapshot.
+ * Tokens come from snake_case / camelCase splitting; tables are ranked with BM25 where
+ * table-name tokens count {@link #TABLE_NAME_BOOST} times as much as column tokens.
+ */
+public final class SchemaIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int TABLE_NAME_BOOST = 3;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "give", "how", "in", "is",
+            "it", "list", "me", "many", "of", "on", "or", "per", "show", "the", "to", "what", "which",
+            "with", "all", "each", "get", "find");
+
+    private final List<TableMeta> tables;
+    private final Map<String, Integer> docIds;
+    private final Map<String, Postings> postings;
+    private final String[][][] columnTokens; // [table][column][token]
+    private final float[] docLength;
+    private final float avgDocLength;
+
+    private SchemaIndex(List<TableMeta> tables, Map<String, Postings> postings, String[][][] columnTokens,
+                        float[] docLength, float avgDocLength) {
+        this.tables = tables;
+        this.docIds = new HashMap<>(tables.size() * 2);
+        for (int i = 0; i < tables.size(); i++) docIds.put(tables.get(i).fqName(), i);
+        this.postings = postings;
+        this.columnTokens = columnTokens;
+        this.docLength = docLength;
+        this.avgDocLength = avgDocLength;
+    }
+
+    public static SchemaIndex build(List<TableMeta> tables) {
+        Map<String, PostingsBuilder> builders = new HashMap<>();
+        String[][][] columnTokens = new String[tables.size()][][];
+        float[] docLength = new float[tables.size()];
+        double totalLength = 0;
+
+        for (int doc = 0; doc < tables.size(); doc++) {
+            TableMeta t = tables.get(doc);
+            Map<String, Integer> tf = new HashMap<>();
+            int length = 0;
+            for (String tok : tokenize(t.table())) {
+                tf.merge(tok, TABLE_NAME_BOOST, Integer::sum);
+                length += TABLE_NAME_BOOST;
+            }
+            List<String> cols = t.columns();
+            String[][] perColumn = new String[cols.size()][];
+            for (int c = 0; c < cols.size(); c++) {
+                List<String> toks = tokenize(cols.get(c));
+                perColumn[c] = toks.toArray(String[]::new);
+                for (String tok : toks) {
+                    tf.merge(tok, 1, Integer::sum);
+                    length++;
+                }
+            }
+            columnTokens[doc] = perColumn;
+            docLength[doc] = length;
+            totalLength += length;
+            for (var e : tf.entrySet()) {
+                builders.computeIfAbsent(e.getKey(), k -> new PostingsBuilder()).add(doc, e.getValue());
+            }
+        }
+
+        Map<String, Postings> postings = new HashMap<>(builders.size() * 2);
+        builders.forEach((term, b) -> postings.put(term, b.build()));
+        float avg = tables.isEmpty() ? 1f : (float) (totalLength / tables.size());
+        return new SchemaIndex(List.copyOf(tables), postings, columnTokens, docLength, avg);
+    }
+
+    public List<TableMeta> tables() {
+        return tables;
+    }
+
+    public TableMeta table(String fqName) {
+        Integer doc = docIds.get(fqName);
+        return doc == null ? null : tables.get(doc);
+    }
+
+    /**
+     * {@code fqName} with at most {@code maxColumns} columns, chosen as in {@link #search};
+     * null when the table is not in this snapshot.
+     */
+    public TableMeta prune(String fqName, String query, int maxColumns) {
+        Integer doc = docIds.get(fqName);
+        return doc == null ? null : pruneColumns(doc, new HashSet<>(tokenize(query)), maxColumns);
+    }
+
+    /**
+     * Returns up to {@code limit} tables ranked by BM25 score; tables with no matching token are not returned.
+     * Each returned table keeps at most {@code maxColumns} columns, preferring those matching the query,
+     * emitted in their original schema order.
+     */
+    public List<TableMeta> search(String query, int limit, int maxColumns) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || tables.isEmpty()) return List.of();
+
+        int n = tables.size();
+        float[] scores = new float[n];
+        int[] touched = new int[Math.min(n, 64)];
+        int touchedCount = 0;
+
+        for (String term : terms) {
+            Postings p = postings.get(term);
+            if (p == null) continue;
+            float idf = (float) Math.log(1 + (n - p.docs.length + 0.5) / (p.docs.length + 0.5));
+            for (int i = 0; i < p.docs.length; i++) {
+                int doc = p.docs[i];
+                float tf = p.freqs[i];
+                float norm = K1 * (1 - B + B * docLength[doc] / avgDocLength);
+                if (scores[doc] == 0f) {
+                    if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += idf * (tf * (K1 + 1)) / (tf + norm);
+            }
+        }
+
+        Integer[] ranked = new Integer[touchedCount];
+        for (int i = 0; i < touchedCount; i++) ranked[i] = touched[i];
+        Arrays.sort(ranked, (a, b) -> {
+            int c = Float.compare(scores[b], scores[a]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+
+        List<TableMeta> result = new ArrayList<>(Math.min(limit, touchedCount));
+        for (int i = 0; i < ranked.length && result.size() < limit; i++) {
+            result.add(pruneColumns(ranked[i], terms, maxColumns));
+        }
+        return result;
+    }
+
+    /**
+     * Fallback when nothing matches: first {@code limit} tables with their columns capped.
+     */
+    public List<TableMeta> head(int limit, int maxColumns) {
+        List<TableMeta> result = new ArrayList<>(limit);
+        for (int i = 0; i < tables.size() && i < limit; i++) {
+            result.add(pruneColumns(i, Set.of(), maxColumns));
+        }
+        return result;
+    }
+
+    private TableMeta pruneColumns(int doc, Set<String> terms, int maxColumns) {
+        TableMeta t = tables.get(doc);
+        List<String> cols = t.columns();
+        if (cols.size() <= maxColumns) return t;
+
+        // matching columns first, then schema order; output keeps schema order
+        boolean[] keep = new boolean[cols.size()];
+        int kept = 0;
+        String[][] toks = columnTokens[doc];
+        for (int c = 0; c < cols.size() && kept < maxColumns; c++) {
+            for (String tok : toks[c]) {
+                if (terms.contains(tok)) {
+                    keep[c] = true;
+                    kept++;
+                    break;
+                }
+            }
+        }
+        for (int c = 0; c < cols.size() && kept < maxColumns; c++) {
+            if (!keep[c]) {
+                keep[c] = true;
+                kept++;
+            }
+        }
+        List<String> pruned = new ArrayList<>(kept);
+        for (int c = 0; c < cols.size(); c++) {
+            if (keep[c]) pruned.add(cols.get(c));
+        }
+        return new TableMeta(t.database(), t.table(), pruned);
+    }
+
+    /**
+     * Splits identifiers and free text into lower-case tokens: snake_case, camelCase,
+     * digits and punctuation are all boundaries. Stop words are dropped and a trailing
+     * plural "s" is stripped so "orders" matches "order_id".
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) return List.of();
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        char prev = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isLetter(ch)) {
+                boolean boundary = Character.isUpperCase(ch) && cur.length() > 0
+                        && (Character.isLowerCase(prev)
+                        || (i + 1 < text.length() && Character.isLowerCase(text.charAt(i + 1)) && Character.isUpperCase(prev)));
+                if (boundary || Character.isDigit(prev)) {
+                    emit(cur, out);
+                }
+                cur.append(Character.toLowerCase(ch));
+            } else if (Character.isDigit(ch)) {
+                if (Character.isLetter(prev)) emit(cur, out);
+                cur.append(ch);
+            } else {
+                emit(cur, out);
+            }
+            prev = ch;
+        }
+        emit(cur, out);
+        return out;
+    }
+
+    private static void emit(StringBuilder cur, List<String> out) {
+        if (cur.length() == 0) return;
+        String tok = cur.toString();
+        cur.setLength(0);
+        if (STOP_WORDS.contains(tok)) return;
+        if (tok.length() > 3 && tok.endsWith("s") && !tok.endsWith("ss")) {
+            tok = tok.substring(0, tok.length() - 1);
+        }
+        out.add(tok);
+    }
+
+    private record Postings(int[] docs, float[] freqs) {
+    }
+
+    private static final class PostingsBuilder {
+        private int[] docs = new int[4];
+        private float[] freqs = new float[4];
+        private int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+
+        Postings build() {
+            return new Postings(Arrays.copyOf(docs, size), Arrays.copyOf(freqs, size));
+        }
+    }
+}
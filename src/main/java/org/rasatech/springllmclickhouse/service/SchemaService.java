@@ -1,99 +1,288 @@
 package org.rasatech.springllmclickhouse.service;
 
-import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import lombok.extern.slf4j.Slf4j;
 import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.rasatech.springllmclickhouse.util.ColumnPruner;
+import org.rasatech.springllmclickhouse.util.SchemaFingerprint;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 public class SchemaService {
+    // cache key constant
+    private static final String KEY = "full-schema";
+    private static final int RRF_K = 60;
+
     private final JdbcTemplate jdbc;
-    private final Cache<String, List<TableMeta>> cache;
+    private final ApplicationEventPublisher events;
+    private final EmbeddingIndex embeddings;
+    private final Retrieval retrieval;
+    private final LoadingCache<String, SchemaSnapshot> cache;
     private final int candidateTables;
     private final int candidateColumns;
+    private final int candidateTokenBudget;
+    private final int incrementalMaxTables;
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * How candidate tables are found: BM25 over identifiers, nearest embeddings, or both fused by rank.
+     */
+    public enum Retrieval {KEYWORD, EMBEDDING, HYBRID}
 
-    public SchemaService(JdbcTemplate jdbc, org.springframework.core.env.Environment env) {
+    public SchemaService(JdbcTemplate jdbc, org.springframework.core.env.Environment env,
+                         ApplicationEventPublisher events, EmbeddingIndex embeddings) {
         this.jdbc = jdbc;
+        this.events = events;
+        this.embeddings = embeddings;
+        this.retrieval = embeddings.enabled()
+                ? Retrieval.valueOf(env.getProperty("schema.retrieval", "keyword").trim().toUpperCase(Locale.ROOT))
+                : Retrieval.KEYWORD;
         int ttl = Integer.parseInt(env.getProperty("schema.cache-ttl-minutes", "5"));
-        this.cache = Caffeine.newBuilder().expireAfterWrite(Duration.ofMinutes(ttl)).build();
+        String mode = env.getProperty("schema.refresh-mode", "background");
+        this.incrementalMaxTables = Integer.parseInt(env.getProperty("schema.incremental-max-tables", "500"));
         this.candidateTables = Integer.parseInt(env.getProperty("schema.candidate-tables", "6"));
         this.candidateColumns = Integer.parseInt(env.getProperty("schema.candidate-columns-per-table", "12"));
+        this.candidateTokenBudget = Integer.parseInt(env.getProperty("schema.candidate-token-budget", "0"));
+
+        ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "schema-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().executor(refresher);
+        // background: serve the old snapshot while a reload runs; expire: block the next caller on a full load
+        if ("expire".equalsIgnoreCase(mode)) {
+            builder.expireAfterWrite(Duration.ofMinutes(ttl));
+        } else {
+            builder.refreshAfterWrite(Duration.ofMinutes(ttl));
+        }
+        this.cache = builder.build(new CacheLoader<>() {
+            @Override
+            public SchemaSnapshot load(String key) {
+                return fullLoad(null);
+            }
+
+            @Override
+            public SchemaSnapshot reload(String key, SchemaSnapshot old) {
+                return incrementalLoad(old);
+            }
+        });
+    }
+
+    // load once at startup so the first request does not pay for the system.columns scan
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        cache.refresh(KEY).whenComplete((s, e) -> {
+            if (e != null) log.warn("Schema warm-up failed: {}", e.getMessage());
+            else log.info("Schema loaded: {} tables, version {}", s.tables().size(), s.version());
+        });
     }
 
     // Full refresh (called lazily or scheduled externally if desired)
     public List<TableMeta> loadFullSchema() {
-        // cache key constant
-        String key = "full-schema";
-        return cache.get(key, k -> fetchSchema());
+        return snapshot().tables();
+    }
+
+    public SchemaSnapshot snapshot() {
+        return cache.get(KEY);
+    }
+
+    /**
+     * Monotonic version of the current schema snapshot; changes whenever tables or columns change.
+     * Never blocks: returns 0 until the first snapshot has been loaded.
+     */
+    public long schemaVersion() {
+        SchemaSnapshot s = cache.getIfPresent(KEY);
+        return s == null ? 0 : s.version();
+    }
+
+    private SchemaSnapshot fullLoad(SchemaSnapshot old) {
+        Map<String, String> modified = fetchModificationTimes();
+        List<TableMeta> metas = fetchColumns("SELECT database, table, name FROM system.columns");
+        return publish(old, metas, modified);
+    }
+
+    // reload only tables whose metadata_modification_time moved, drop tables that are gone
+    private SchemaSnapshot incrementalLoad(SchemaSnapshot old) {
+        Map<String, String> modified = fetchModificationTimes();
+        Set<String> changed = new HashSet<>();
+        for (var e : modified.entrySet()) {
+            if (!e.getValue().equals(old.modified().get(e.getKey()))) changed.add(e.getKey());
+        }
+        boolean removed = !modified.keySet().containsAll(old.modified().keySet());
+        if (changed.isEmpty() && !removed) {
+            return old;
+        }
+        if (changed.size() > incrementalMaxTables) {
+            return fullLoad(old);
+        }
+
+        Map<String, TableMeta> merged = new HashMap<>();
+        for (TableMeta t : old.tables()) {
+            if (modified.containsKey(t.fqName()) && !changed.contains(t.fqName())) merged.put(t.fqName(), t);
+        }
+        if (!changed.isEmpty()) {
+            for (TableMeta t : fetchColumns(changedColumnsSql(changed))) merged.put(t.fqName(), t);
+        }
+        log.debug("Incremental schema refresh: {} changed, removed={}", changed.size(), removed);
+        return publish(old, new ArrayList<>(merged.values()), modified);
     }
 
-    private List<TableMeta> fetchSchema() {
-        String sql = "SELECT database, table, name FROM system.columns";
+    private String changedColumnsSql(Set<String> fqNames) {
+        String tuples = fqNames.stream().map(fq -> {
+            String[] parts = fq.split("\\.", 2);
+            return "(" + quote(parts[0]) + ", " + quote(parts[1]) + ")";
+        }).collect(Collectors.joining(", "));
+        return "SELECT database, table, name FROM system.columns WHERE (database, table) IN (" + tuples + ")";
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    private Map<String, String> fetchModificationTimes() {
+        String sql = "SELECT database, name, toString(metadata_modification_time) AS modified FROM system.tables";
+        Map<String, String> modified = new HashMap<>();
+        for (var r : jdbc.queryForList(sql)) {
+            modified.put(r.get("database") + "." + r.get("name"), String.valueOf(r.get("modified")));
+        }
+        return modified;
+    }
+
+    private List<TableMeta> fetchColumns(String sql) {
         List<Map<String, Object>> rows = jdbc.queryForList(sql);
         Map<String, Set<String>> map = new HashMap<>();
-        Map<String, String> dbForTable = new HashMap<>();
         for (var r : rows) {
             String db = r.get("database").toString();
             String table = r.get("table").toString();
             String col = r.get("name").toString();
             String key = db + "." + table;
             map.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(col);
-            dbForTable.putIfAbsent(key, db);
         }
-        List<TableMeta> metas = map.entrySet().stream().map(e -> {
+        return map.entrySet().stream().map(e -> {
             String[] parts = e.getKey().split("\\.", 2);
             String db = parts[0], table = parts[1];
             List<String> cols = e.getValue().stream().limit(1000).collect(Collectors.toList());
             return new TableMeta(db, table, cols);
         }).collect(Collectors.toList());
-        return metas;
     }
 
-    // keyword-based candidate selection + column pruning
-    public List<TableMeta> findCandidateTables(String userQuery) {
-        var full = loadFullSchema();
-
-        // score tables based on user query
-        List<ScoredTable> scored = new ArrayList<>();
-        String q = userQuery == null ? "" : userQuery.toLowerCase();
-
-        for (var t : full) {
-            int score = 0;
-            String tname = t.table().toLowerCase();
-            if (q.contains(tname) || tname.contains(q)) score += 5;
-            for (var c : t.columns()) {
-                String col = c.toLowerCase();
-                if (q.contains(col)) score += 2;
-                if (col.contains(q)) score += 1;
-            }
-            scored.add(new ScoredTable(score, t));
+    // bump the version and notify dependent caches only when the content actually changed
+    private SchemaSnapshot publish(SchemaSnapshot old, List<TableMeta> metas, Map<String, String> modified) {
+        metas.sort(Comparator.comparing(TableMeta::fqName));
+        String fingerprint = SchemaFingerprint.of(metas);
+        if (old != null && old.fingerprint().equals(fingerprint)) {
+            return new SchemaSnapshot(old.version(), fingerprint, old.index(), Map.copyOf(modified));
         }
+        var snapshot = new SchemaSnapshot(version.incrementAndGet(), fingerprint, SchemaIndex.build(metas),
+                Map.copyOf(modified));
+        embeddings.update(snapshot.tables());
+        if (old != null) {
+            events.publishEvent(new SchemaChangedEvent(snapshot.version(), fingerprint));
+        }
+        return snapshot;
+    }
 
-        scored.sort(Comparator.comparingInt(ScoredTable::score).reversed());
+    // inverted-index candidate selection + column pruning
+    public List<TableMeta> findCandidateTables(String userQuery) {
+        return keywordCandidates(snapshot().index(), userQuery);
+    }
 
-        // take top N tables (score>0) OR fallback to first N tables
-        List<TableMeta> candidates = scored.stream().filter(s -> s.score() > 0).limit(candidateTables).map(ScoredTable::table).collect(Collectors.toList());
+    /**
+     * Candidate tables using the configured {@code schema.retrieval}. Embedding retrieval finds tables
+     * whose names share no token with the question ("revenue" vs {@code gross_amt}); it falls back to
+     * keyword search while the index is still being built or when the embedding call fails.
+     * The snapshot is read on the subscribing thread, so subscribe on one that may block.
+     */
+    public Mono<List<TableMeta>> findCandidates(String userQuery) {
+        return Mono.fromCallable(this::snapshot).flatMap(s -> findCandidates(s, userQuery));
+    }
 
-        if (candidates.isEmpty()) {
-            candidates = full.stream().limit(candidateTables).collect(Collectors.toList());
+    // against a snapshot the caller already holds, e.g. one shared by every question of a batch
+    public Mono<List<TableMeta>> findCandidates(SchemaSnapshot snapshot, String userQuery) {
+        SchemaIndex index = snapshot.index();
+        if (retrieval == Retrieval.KEYWORD || !embeddings.ready()) {
+            return Mono.fromCallable(() -> keywordCandidates(index, userQuery));
         }
+        return embeddings.embed(userQuery)
+                .map(q -> semanticCandidates(index, userQuery, q))
+                .filter(c -> !c.isEmpty())
+                .onErrorResume(e -> {
+                    log.debug("Embedding retrieval failed, using keyword search: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .switchIfEmpty(Mono.fromCallable(() -> keywordCandidates(index, userQuery)));
+    }
+
+    private List<TableMeta> keywordCandidates(SchemaIndex index, String userQuery) {
+        List<TableMeta> candidates = index.search(userQuery, candidateTables, candidateColumns);
 
-        // ⚡ IMPORTANT: include **all columns** for each table to prevent validator rejection
-        List<TableMeta> safeCandidates = new ArrayList<>();
-        for (var t : candidates) {
-            safeCandidates.add(new TableMeta(t.database(), t.table(), t.columns())); // no pruning
+        // nothing matched: fall back to first N tables
+        if (candidates.isEmpty()) {
+            candidates = index.head(candidateTables, candidateColumns);
         }
+        // prompt evaluation dominates latency on CPU: keep the schema listing within budget
+        return ColumnPruner.fitToBudget(candidates, userQuery, candidateTokenBudget);
+    }
 
-        return safeCandidates;
+    private List<TableMeta> semanticCandidates(SchemaIndex index, String userQuery, float[] queryVector) {
+        List<String> ranked;
+        if (retrieval == Retrieval.HYBRID) {
+            // reciprocal rank fusion over a deeper pool from both retrievers
+            int depth = candidateTables * 3;
+            Map<String, Double> fused = new HashMap<>();
+            List<String> semantic = embeddings.nearest(queryVector, depth);
+            for (int i = 0; i < semantic.size(); i++) fused.merge(semantic.get(i), 1.0 / (RRF_K + i), Double::sum);
+            List<TableMeta> keyword = index.search(userQuery, depth, candidateColumns);
+            for (int i = 0; i < keyword.size(); i++) fused.merge(keyword.get(i).fqName(), 1.0 / (RRF_K + i), Double::sum);
+            ranked = fused.entrySet().stream()
+                    .sorted(Map.Entry.<String, Double>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .map(Map.Entry::getKey)
+                    .toList();
+        } else {
+            ranked = embeddings.nearest(queryVector, candidateTables);
+        }
+        List<TableMeta> candidates = new ArrayList<>(candidateTables);
+        for (String fqName : ranked) {
+            if (candidates.size() == candidateTables) break;
+            // the persisted index may still list tables dropped since
+            TableMeta t = index.prune(fqName, userQuery, candidateColumns);
+            if (t != null) candidates.add(t);
+        }
+        return ColumnPruner.fitToBudget(candidates, userQuery, candidateTokenBudget);
     }
 
+    /**
+     * The candidates with their complete column lists. The prompt shows a pruned listing, but a real
+     * column the model remembered anyway should still pass validation.
+     */
+    public List<TableMeta> withAllColumns(List<TableMeta> candidates) {
+        return withAllColumns(snapshot(), candidates);
+    }
 
-    private record ScoredTable(int score, TableMeta table) {
+    public List<TableMeta> withAllColumns(SchemaSnapshot snapshot, List<TableMeta> candidates) {
+        SchemaIndex index = snapshot.index();
+        List<TableMeta> out = new ArrayList<>(candidates.size());
+        for (TableMeta t : candidates) {
+            TableMeta full = index.table(t.fqName());
+            out.add(full != null ? full : t);
+        }
+        return out;
     }
 
     // ✅ Add this method for pruning columns per table
@@ -106,4 +295,4 @@ public class SchemaService {
                 ))
                 .toList();
     }
-}
\ No newline at end of file
+}
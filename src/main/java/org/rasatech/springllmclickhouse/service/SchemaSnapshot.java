@@ -0,0 +1,18 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One immutable view of the ClickHouse schema. {@code version} increases every time the
+ * content changes, so other caches can key on it; {@code modified} holds each table's
+ * {@code system.tables.metadata_modification_time} for incremental refresh.
+ */
+public record SchemaSnapshot(long version, String fingerprint, SchemaIndex index, Map<String, String> modified) {
+
+    public List<TableMeta> tables() {
+        return index.tables();
+    }
+}
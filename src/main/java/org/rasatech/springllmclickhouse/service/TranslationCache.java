@@ -0,0 +1,86 @@
+package org.rasatech.springllmclickhouse.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.rasatech.springllmclickhouse.util.SchemaFingerprint;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Caches validated SQL per (normalized question, candidate schema) so repeated
+ * questions skip the LLM round trip entirely.
+ */
+@Slf4j
+@Service
+public class TranslationCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCT = Pattern.compile("[\\s?.!;]+$");
+
+    private final boolean enabled;
+    private final Cache<String, Translation> cache;
+
+    /**
+     * Validated SQL, the fully-qualified tables it reads and whether its result is the same on every run.
+     */
+    public record Translation(String sql, Set<String> tables, boolean deterministic) {
+    }
+
+    public TranslationCache(Environment env) {
+        this.enabled = Boolean.parseBoolean(env.getProperty("translation-cache.enabled", "true"));
+        long maxSize = Long.parseLong(env.getProperty("translation-cache.max-size", "10000"));
+        int ttl = Integer.parseInt(env.getProperty("translation-cache.ttl-minutes", "60"));
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttl))
+                .recordStats()
+                .build();
+    }
+
+    public String keyFor(String nlQuery, List<TableMeta> candidates) {
+        return normalize(nlQuery) + "|" + SchemaFingerprint.of(candidates);
+    }
+
+    public Translation get(String key) {
+        return enabled ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(String key, String sql, Set<String> tables, boolean deterministic) {
+        if (enabled) cache.put(key, new Translation(sql, tables, deterministic));
+    }
+
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @EventListener
+    public void onSchemaChanged(SchemaChangedEvent event) {
+        log.info("Schema changed (version {}), clearing {} cached translations", event.version(), cache.estimatedSize());
+        cache.invalidateAll();
+    }
+
+    // lower-case, collapse whitespace, drop trailing punctuation
+    public static String normalize(String nlQuery) {
+        if (nlQuery == null) return "";
+        String s = WHITESPACE.matcher(nlQuery.trim().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        return TRAILING_PUNCT.matcher(s).replaceAll("");
+    }
+}
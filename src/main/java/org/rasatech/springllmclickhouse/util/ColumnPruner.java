@@ -0,0 +1,121 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.rasatech.springllmclickhouse.service.SchemaIndex;
+
+import java.util.*;
+
+/**
+ * Shrinks the schema listing of a prompt to a token budget. Columns are dropped from the
+ * widest table first, least relevant first: columns sharing no token with the question go
+ * before matching ones, and later columns go before earlier ones (keys tend to come first).
+ * Surviving columns keep their schema order so the prompt prefix stays stable.
+ */
+public final class ColumnPruner {
+
+    // rough chars-per-token for code-ish English on llama/mistral tokenizers
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final int MIN_COLUMNS = 3;
+
+    private ColumnPruner() {
+    }
+
+    public static int estimateTokens(List<TableMeta> tables) {
+        int chars = 0;
+        for (TableMeta t : tables) chars += listingChars(t.fqName(), t.columns().size(), sumLength(t.columns()));
+        return chars / CHARS_PER_TOKEN;
+    }
+
+    public static List<TableMeta> fitToBudget(List<TableMeta> tables, String userQuery, int tokenBudget) {
+        if (tokenBudget <= 0 || estimateTokens(tables) <= tokenBudget) return tables;
+
+        Set<String> terms = new HashSet<>(SchemaIndex.tokenize(userQuery));
+        int budgetChars = tokenBudget * CHARS_PER_TOKEN;
+
+        List<Pruning> states = new ArrayList<>(tables.size());
+        int chars = 0;
+        for (TableMeta t : tables) {
+            Pruning p = new Pruning(t, terms);
+            states.add(p);
+            chars += p.chars();
+        }
+
+        PriorityQueue<Pruning> widest = new PriorityQueue<>(Comparator.comparingInt(Pruning::chars).reversed());
+        widest.addAll(states);
+        while (chars > budgetChars && !widest.isEmpty()) {
+            Pruning p = widest.poll();
+            if (!p.canDrop()) continue;
+            chars -= p.dropOne();
+            widest.add(p);
+        }
+
+        List<TableMeta> out = new ArrayList<>(states.size());
+        for (Pruning p : states) out.add(p.result());
+        return out;
+    }
+
+    private static int listingChars(String fqName, int columns, int columnChars) {
+        // "- db.table: [a, b, c]\n"
+        return 2 + fqName.length() + 3 + columnChars + Math.max(0, columns - 1) * 2 + 2;
+    }
+
+    private static int sumLength(List<String> cols) {
+        int n = 0;
+        for (String c : cols) n += c.length();
+        return n;
+    }
+
+    private static final class Pruning {
+        private final TableMeta table;
+        private final boolean[] dropped;
+        private final int[] dropOrder;
+        private int next;
+        private int remaining;
+        private int columnChars;
+
+        Pruning(TableMeta table, Set<String> terms) {
+            this.table = table;
+            List<String> cols = table.columns();
+            this.dropped = new boolean[cols.size()];
+            this.remaining = cols.size();
+            this.columnChars = sumLength(cols);
+            // non-matching from the end, then matching from the end
+            int[] order = new int[cols.size()];
+            int k = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                for (int c = cols.size() - 1; c >= 0; c--) {
+                    boolean matches = !Collections.disjoint(terms, SchemaIndex.tokenize(cols.get(c)));
+                    if (matches == (pass == 1)) order[k++] = c;
+                }
+            }
+            this.dropOrder = order;
+        }
+
+        int chars() {
+            return listingChars(table.fqName(), remaining, columnChars);
+        }
+
+        boolean canDrop() {
+            return remaining > MIN_COLUMNS;
+        }
+
+        int dropOne() {
+            int before = chars();
+            int c = dropOrder[next++];
+            dropped[c] = true;
+            remaining--;
+            columnChars -= table.columns().get(c).length();
+            return before - chars();
+        }
+
+        TableMeta result() {
+            if (next == 0) return table;
+            List<String> kept = new ArrayList<>(remaining);
+            List<String> cols = table.columns();
+            for (int c = 0; c < cols.size(); c++) {
+                if (!dropped[c]) kept.add(cols.get(c));
+            }
+            return new TableMeta(table.database(), table.table(), kept);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.rasatech.springllmclickhouse.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Writes a result set as newline-delimited JSON: one header line with column names and
+ * ClickHouse types, one JSON array per row, then a trailer with the row count and, when the result
+ * comes with one (e.g. it is partial), a message.
+ * Rows are written straight from the cursor; a slow client blocks the writer, which in
+ * turn stops reading from ClickHouse.
+ */
+public class NdjsonResultWriter {
+
+    private static final int FLUSH_EVERY_ROWS = 500;
+
+    private final OutputStream out;
+    private final JsonGenerator gen;
+
+    public NdjsonResultWriter(OutputStream out, ObjectMapper mapper) throws IOException {
+        this.out = out;
+        this.gen = mapper.getFactory().createGenerator(out);
+        this.gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // gen.flush() only drains into the servlet buffer; network flushes are explicit
+        this.gen.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+    }
+
+    public void write(ResultSet rs, String message) throws SQLException, IOException {
+        ResultSetMetaData md = rs.getMetaData();
+        int cols = md.getColumnCount();
+
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("columns");
+        for (int i = 1; i <= cols; i++) {
+            gen.writeStartObject();
+            gen.writeStringField("name", md.getColumnLabel(i));
+            gen.writeStringField("type", md.getColumnTypeName(i));
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        newLine();
+
+        long rows = 0;
+        while (rs.next()) {
+            gen.writeStartArray();
+            for (int i = 1; i <= cols; i++) {
+                gen.writeObject(rs.getObject(i));
+            }
+            gen.writeEndArray();
+            newLine();
+            if (++rows % FLUSH_EVERY_ROWS == 0) out.flush();
+        }
+
+        gen.writeStartObject();
+        gen.writeBooleanField("success", true);
+        gen.writeNumberField("rows", rows);
+        if (message != null) gen.writeStringField("message", message);
+        gen.writeEndObject();
+        newLine();
+        out.flush();
+    }
+
+    public void error(String message) throws IOException {
+        gen.writeStartObject();
+        gen.writeBooleanField("success", false);
+        gen.writeStringField("message", message);
+        gen.writeEndObject();
+        newLine();
+        out.flush();
+    }
+
+    private void newLine() throws IOException {
+        gen.writeRaw('\n');
+        gen.flush();
+    }
+}
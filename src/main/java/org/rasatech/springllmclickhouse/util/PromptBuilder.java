@@ -2,8 +2,8 @@ package org.rasatech.springllmclickhouse.util;
 
 import org.rasatech.springllmclickhouse.model.TableMeta;
 
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class PromptBuilder {
 
@@ -14,20 +14,13 @@ public class PromptBuilder {
      * - One SELECT statement
      * - ORDER BY and LIMIT applied
      * - Fully-qualified or table-only names allowed
+     * The schema section comes first and is byte-identical for the same candidate set,
+     * so Ollama can reuse its KV cache for it across requests.
      */
     public static String build(String userPrompt, List<TableMeta> tables) {
         StringBuilder sb = new StringBuilder();
 
-        sb.append("System:\n");
-        sb.append("You are an expert ClickHouse SQL generator.\n");
-        sb.append("Return EXACTLY one SELECT statement enclosed in triple backticks.\n");
-        sb.append("Use ONLY the tables and columns listed below. Do NOT invent any tables or columns.\n");
-        sb.append("Use ClickHouse SQL syntax. Include ORDER BY and LIMIT (max 1000) where appropriate.\n\n");
-
-        sb.append("Available tables and columns:\n");
-        for (TableMeta t : tables) {
-            sb.append("- ").append(t.fqName()).append(": [").append(String.join(", ", t.columns())).append("]\n");
-        }
+        appendSchemaPrefix(sb, tables);
 
         sb.append("\nUser request:\n\"").append(userPrompt).append("\"\n\n");
         sb.append("Important: Only reference the tables and columns listed above. You may use fully-qualified names (db.table) or table-only names.\n");
@@ -39,25 +32,38 @@ public class PromptBuilder {
     /**
      * Builds a repair prompt for the LLM when previous SQL had errors.
      * Provides broken SQL, the error message, and allowed tables/columns.
+     * Shares the schema prefix with {@link #build}, so only the repair request is new to the model.
      */
     public static String buildRepairPrompt(String brokenSql, String errorMessage, List<TableMeta> tables) {
         StringBuilder sb = new StringBuilder();
 
+        appendSchemaPrefix(sb, tables);
+        sb.append('\n');
+        appendRepairRequest(sb, brokenSql, errorMessage);
+
+        return sb.toString();
+    }
+
+    private static void appendSchemaPrefix(StringBuilder sb, List<TableMeta> tables) {
         sb.append("System:\n");
         sb.append("You are an expert ClickHouse SQL generator.\n");
+        sb.append("Return EXACTLY one SELECT statement enclosed in triple backticks.\n");
+        sb.append("Use ONLY the tables and columns listed below. Do NOT invent any tables or columns.\n");
+        sb.append("Use ClickHouse SQL syntax. Include ORDER BY and LIMIT (max 1000) where appropriate.\n\n");
+
+        sb.append("Available tables and columns:\n");
+        // ranking order varies per question; listing order must not
+        tables.stream().sorted(Comparator.comparing(TableMeta::fqName)).forEach(t ->
+                sb.append("- ").append(t.fqName()).append(": [").append(String.join(", ", t.columns())).append("]\n"));
+    }
+
+    private static void appendRepairRequest(StringBuilder sb, String brokenSql, String errorMessage) {
         sb.append("Fix the following SQL query so it is valid and only uses allowed tables/columns.\n\n");
 
         sb.append("Error encountered:\n").append(errorMessage).append("\n\n");
 
         sb.append("Previous SQL:\n```sql\n").append(brokenSql).append("\n```\n\n");
 
-        sb.append("Available tables and columns:\n");
-        for (TableMeta t : tables) {
-            sb.append("- ").append(t.fqName()).append(": [").append(String.join(", ", t.columns())).append("]\n");
-        }
-
-        sb.append("\nOutput corrected SQL ONLY, enclosed in triple backticks:\n```sql\n<corrected SQL here>\n```\n");
-
-        return sb.toString();
+        sb.append("Output corrected SQL ONLY, enclosed in triple backticks:\n```sql\n<corrected SQL here>\n```\n");
     }
 }
@@ -0,0 +1,38 @@
+package org.rasatech.springllmclickhouse.util;
+
+import java.util.Map;
+
+/**
+ * Appends ClickHouse settings to a validated SELECT as a trailing {@code SETTINGS} clause.
+ * Validated SQL never carries a clause of its own (the parser rejects it), so a clause found at
+ * the end was added here and is extended rather than duplicated.
+ */
+public final class QuerySettings {
+
+    private static final String CLAUSE = "\nSETTINGS ";
+
+    private QuerySettings() {
+    }
+
+    public static String append(String sql, Map<String, ?> settings) {
+        if (settings.isEmpty()) return sql;
+        StringBuilder sb = new StringBuilder(sql.length() + 32 * settings.size()).append(sql);
+        boolean first = !sql.contains(CLAUSE);
+        for (var e : settings.entrySet()) {
+            if (sql.contains(CLAUSE + e.getKey() + " ") || sql.contains(", " + e.getKey() + " = ")) continue;
+            sb.append(first ? CLAUSE : ", ").append(e.getKey()).append(" = ").append(literal(e.getValue()));
+            first = false;
+        }
+        return sb.toString();
+    }
+
+    public static boolean has(String sql, String setting) {
+        int clause = sql.lastIndexOf(CLAUSE);
+        return clause >= 0 && sql.indexOf(setting + " = ", clause) > 0;
+    }
+
+    private static String literal(Object value) {
+        if (value instanceof Number || value instanceof Boolean) return value.toString();
+        return "'" + value.toString().replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
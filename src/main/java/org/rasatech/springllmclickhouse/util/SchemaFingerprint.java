@@ -0,0 +1,40 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.Comparator;
+import java.util.List;
+
+public final class SchemaFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SchemaFingerprint() {
+    }
+
+    /**
+     * Order-independent 64-bit fingerprint of a set of tables and their columns.
+     * Two candidate sets with the same tables/columns produce the same value.
+     */
+    public static String of(List<TableMeta> tables) {
+        long h = FNV_OFFSET;
+        List<TableMeta> sorted = tables.stream().sorted(Comparator.comparing(TableMeta::fqName)).toList();
+        for (TableMeta t : sorted) {
+            h = mix(h, t.fqName());
+            for (String c : t.columns()) {
+                h = mix(h, c);
+            }
+            h = (h ^ '\n') * FNV_PRIME;
+        }
+        return Long.toHexString(h);
+    }
+
+    private static long mix(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        // field separator so ("ab","c") and ("a","bc") differ
+        return (h ^ 0x1f) * FNV_PRIME;
+    }
+}
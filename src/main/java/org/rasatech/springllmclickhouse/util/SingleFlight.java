@@ -0,0 +1,42 @@
+package org.rasatech.springllmclickhouse.util;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key onto one in-flight {@link Mono}.
+ * Every caller gets the shared result; a caller that cancels only detaches itself, and the
+ * underlying work is cancelled once the last caller has gone. The entry is dropped as soon as
+ * the work terminates, so later calls start fresh.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    public Mono<V> execute(K key, Supplier<Mono<V>> work) {
+        return Mono.defer(() -> inFlight.computeIfAbsent(key, k -> share(k, work)));
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private Mono<V> share(K key, Supplier<Mono<V>> work) {
+        @SuppressWarnings("unchecked")
+        Mono<V>[] self = new Mono[1];
+        Runnable forget = () -> inFlight.remove(key, self[0]);
+        // drop the entry before the result is delivered, so no caller can join a finished run
+        self[0] = Mono.defer(work)
+                .doOnSuccess(v -> forget.run())
+                .doOnError(e -> forget.run())
+                .doOnCancel(forget)
+                .flux()
+                .publish()
+                .refCount(1)
+                .singleOrEmpty();
+        return self[0];
+    }
+}
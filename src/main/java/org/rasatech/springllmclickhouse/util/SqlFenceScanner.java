@@ -0,0 +1,53 @@
+package org.rasatech.springllmclickhouse.util;
+
+/**
+ * Accumulates streamed LLM output and reports, incrementally, when a complete
+ * {@code ```sql ... ```} block has been received. Each fragment is scanned once.
+ */
+public class SqlFenceScanner {
+
+    private static final String OPEN = "```sql";
+    private static final String CLOSE = "```";
+
+    private final StringBuilder text = new StringBuilder();
+    private int scanFrom;
+    private int bodyStart = -1;
+
+    /**
+     * @return true once the closing fence of the SQL block has been seen
+     */
+    public boolean append(String fragment) {
+        if (fragment == null || fragment.isEmpty()) return false;
+        text.append(fragment);
+        if (bodyStart < 0) {
+            // fence may straddle fragments: rescan the tail of the previous fragment
+            int open = indexOfIgnoreCase(text, OPEN, Math.max(0, scanFrom - OPEN.length() + 1));
+            if (open < 0) {
+                scanFrom = text.length();
+                return false;
+            }
+            bodyStart = open + OPEN.length();
+            scanFrom = bodyStart;
+        }
+        int close = text.indexOf(CLOSE, Math.max(bodyStart, scanFrom - CLOSE.length() + 1));
+        scanFrom = text.length();
+        return close >= 0;
+    }
+
+    public String text() {
+        return text.toString();
+    }
+
+    // needle must be lower-case
+    private static int indexOfIgnoreCase(CharSequence s, String needle, int from) {
+        int last = s.length() - needle.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < needle.length(); j++) {
+                if (Character.toLowerCase(s.charAt(i + j)) != needle.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,252 @@
+package org.rasatech.springllmclickhouse.util;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.Select;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic fixes for the mechanical mistakes models make, tried before a validation failure is
+ * sent back to the LLM:
+ * <ul>
+ *   <li>trailing semicolons</li>
+ *   <li>identifiers that need backticks (hyphens, spaces, leading digits) written bare</li>
+ *   <li>a known table qualified with the wrong database</li>
+ *   <li>near-miss table, qualifier and column names: case, {@code userId} vs {@code user_id}, or a
+ *       small edit distance to exactly one schema name</li>
+ * </ul>
+ * Rewrites happen on the JSQLParser AST; an ambiguous match is left alone. The result still has to
+ * pass {@link SqlValidator}.
+ */
+@Component
+public class SqlRepairer {
+
+    private static final Pattern SIMPLE_IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern TRAILING_SEMICOLONS = Pattern.compile("[;\\s]+$");
+
+    /**
+     * The repaired statement, or null when no rule applied.
+     */
+    public String repair(String rawSql, List<TableMeta> allowedTables) {
+        if (rawSql == null || rawSql.isBlank() || allowedTables.isEmpty()) return null;
+        String sql = TRAILING_SEMICOLONS.matcher(rawSql.strip()).replaceAll("");
+        sql = quoteBareIdentifiers(sql, allowedTables);
+        boolean changed = !sql.equals(rawSql.strip());
+
+        Statement stmt;
+        try {
+            stmt = CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            return changed ? sql : null;
+        }
+        if (!(stmt instanceof Select select)) return changed ? sql : null;
+
+        SqlValidator.ReferenceCollector refs = new SqlValidator.ReferenceCollector();
+        refs.getTables((Statement) select);
+
+        Map<String, TableMeta> byFqName = new HashMap<>();
+        Map<String, List<TableMeta>> byTable = new HashMap<>();
+        for (TableMeta t : allowedTables) {
+            byFqName.put(t.fqName(), t);
+            byTable.computeIfAbsent(t.table(), k -> new ArrayList<>()).add(t);
+        }
+
+        // tables first: the columns in scope depend on which tables are read
+        Set<TableMeta> used = new LinkedHashSet<>();
+        Map<String, String> renamedTables = new HashMap<>();
+        for (Table table : refs.tableRefs) {
+            String name = SqlValidator.unquote(table.getName());
+            String db = table.getSchemaName() == null ? null : SqlValidator.unquote(table.getSchemaName());
+            if (db == null && refs.aliases.contains(name)) continue; // CTE reference
+            if (db == null && byTable.containsKey(name)) {
+                used.addAll(byTable.get(name));
+                continue;
+            }
+            TableMeta match = resolveTable(db, name, byFqName, byTable);
+            if (match == null) continue;
+            used.add(match);
+            if (!match.table().equals(name)) renamedTables.put(name, match.table());
+            if (!match.table().equals(name) || (db != null && !match.database().equals(db))) {
+                if (db != null || byTable.get(match.table()).size() > 1) table.setSchemaName(quote(match.database()));
+                table.setName(quote(match.table()));
+                changed = true;
+            }
+        }
+
+        List<TableMeta> scope = used.isEmpty() ? allowedTables : List.copyOf(used);
+        Set<String> columns = new LinkedHashSet<>();
+        for (TableMeta t : scope) columns.addAll(t.columns());
+        // a misspelt ORDER BY alias is as likely as a misspelt column
+        Set<String> names = new LinkedHashSet<>(columns);
+        names.addAll(refs.aliases);
+        Set<String> tableNames = new HashSet<>();
+        for (TableMeta t : scope) tableNames.add(t.table());
+
+        for (Column c : refs.columns) {
+            String name = SqlValidator.unquote(c.getColumnName());
+            Table qualifier = c.getTable();
+            String q = qualifier == null || qualifier.getName() == null ? null : SqlValidator.unquote(qualifier.getName());
+            if (q != null && columns.contains(q + "." + name)) continue; // nested column
+            if (q != null && !tableNames.contains(q) && !refs.aliases.contains(q)) {
+                String fixed = renamedTables.getOrDefault(q, closest(q, tableNames));
+                if (fixed != null) {
+                    qualifier.setName(quote(fixed));
+                    changed = true;
+                }
+            }
+            if (columns.contains(name) || refs.aliases.contains(name) || refs.lambdaParams.contains(name)) continue;
+            String fixed = closest(name, names);
+            if (fixed != null) {
+                c.setColumnName(quote(fixed));
+                changed = true;
+            }
+        }
+        return changed ? select.toString() : null;
+    }
+
+    private static TableMeta resolveTable(String db, String name, Map<String, TableMeta> byFqName,
+                                          Map<String, List<TableMeta>> byTable) {
+        if (db != null) {
+            TableMeta exact = byFqName.get(db + "." + name);
+            if (exact != null) return exact;
+        }
+        List<TableMeta> sameName = byTable.get(name);
+        if (sameName == null) {
+            String fixed = closest(name, byTable.keySet());
+            sameName = fixed == null ? null : byTable.get(fixed);
+        }
+        if (sameName == null) return null;
+        if (sameName.size() == 1) return sameName.get(0);
+        // the same table in several databases: only a close database name decides
+        if (db == null) return null;
+        List<String> dbs = sameName.stream().map(TableMeta::database).toList();
+        String fixedDb = closest(db, dbs);
+        if (fixedDb == null) return null;
+        for (TableMeta t : sameName) {
+            if (t.database().equals(fixedDb)) return t;
+        }
+        return null;
+    }
+
+    /**
+     * The single candidate that matches {@code name} ignoring case and underscores, else the single
+     * candidate within a small edit distance; null when none or several qualify.
+     */
+    static String closest(String name, Collection<String> candidates) {
+        String key = normalize(name);
+        String best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        boolean tie = false;
+        int limit = Math.min(2, Math.max(1, key.length() / 4));
+        for (String c : candidates) {
+            int d = levenshtein(key, normalize(c), limit);
+            if (d < bestDistance) {
+                best = c;
+                bestDistance = d;
+                tie = false;
+            } else if (d == bestDistance && d <= limit) {
+                tie = true;
+            }
+        }
+        return bestDistance <= limit && !tie ? best : null;
+    }
+
+    private static String normalize(String identifier) {
+        return identifier.replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    // edit distance, abandoned once every cell in a row exceeds limit
+    static int levenshtein(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) return limit + 1;
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > limit) return limit + 1;
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[b.length()];
+    }
+
+    private static String quote(String identifier) {
+        return SIMPLE_IDENTIFIER.matcher(identifier).matches() ? identifier : "`" + identifier + "`";
+    }
+
+    // schema names the parser would split apart unless quoted, e.g. web-events or 2024_sales;
+    // string literals and already quoted identifiers are copied as they are
+    static String quoteBareIdentifiers(String sql, List<TableMeta> tables) {
+        Set<String> names = new TreeSet<>(Comparator.comparingInt(String::length).reversed().thenComparing(s -> s));
+        for (TableMeta t : tables) {
+            names.add(t.database());
+            names.add(t.table());
+            names.addAll(t.columns());
+        }
+        StringJoiner alternatives = new StringJoiner("|");
+        for (String name : names) {
+            if (SIMPLE_IDENTIFIER.matcher(name).matches() || !sql.contains(name)) continue;
+            alternatives.add(Pattern.quote(name));
+        }
+        if (alternatives.length() == 0) return sql;
+        // one pass, longest name first, so a name is never quoted inside a longer one
+        Pattern bare = Pattern.compile("(?<![`\"\\w])(?:" + alternatives + ")(?![`\"\\w])");
+
+        StringBuilder out = new StringBuilder(sql.length() + 16);
+        int i = 0;
+        while (i < sql.length()) {
+            int end = isQuote(sql.charAt(i)) ? endOfQuoted(sql, i) : nextQuote(sql, i);
+            String part = sql.substring(i, end);
+            if (!isQuote(sql.charAt(i))) {
+                part = bare.matcher(part).replaceAll(m -> Matcher.quoteReplacement("`" + m.group() + "`"));
+            }
+            out.append(part);
+            i = end;
+        }
+        return out.toString();
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '\'' || c == '"' || c == '`';
+    }
+
+    private static int nextQuote(String sql, int from) {
+        int i = from;
+        while (i < sql.length() && !isQuote(sql.charAt(i))) i++;
+        return i;
+    }
+
+    // index after the closing quote; backslash escapes and doubled quotes stay inside
+    private static int endOfQuoted(String sql, int start) {
+        char quote = sql.charAt(start);
+        int i = start + 1;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote && i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return sql.length();
+    }
+}
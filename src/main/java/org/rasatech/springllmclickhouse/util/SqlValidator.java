@@ -1,15 +1,25 @@
 package org.rasatech.springllmclickhouse.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Alias;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.JsonExpression;
+import net.sf.jsqlparser.expression.LambdaExpression;
+import net.sf.jsqlparser.expression.TimeKeyExpression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.select.*;
 import net.sf.jsqlparser.util.TablesNamesFinder;
 import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 @Component
@@ -18,18 +28,76 @@ public class SqlValidator {
     // max rows enforced
     private final int maxRows = 1000;
 
-    public record ValidationResult(boolean valid, String sql, String message) {
+    // table functions and scalar functions that reach outside the database
+    private static final Set<String> FORBIDDEN_FUNCTIONS = Set.of(
+            "file", "url", "remote", "remotesecure", "cluster", "clusterallreplicas", "s3", "s3cluster", "gcs",
+            "hdfs", "hdfscluster", "azureblobstorage", "mysql", "postgresql", "jdbc", "odbc", "sqlite", "mongodb",
+            "redis", "executable", "input", "dictionary", "merge", "view", "iceberg", "deltalake", "hudi");
+
+    // results change from one run to the next: never served from the result cache
+    private static final Set<String> NONDETERMINISTIC_FUNCTIONS = Set.of(
+            "now", "now64", "nowinblock", "today", "yesterday", "rand", "rand32", "rand64", "randconstant",
+            "randcanonical", "randuniform", "randnormal", "generateuuidv4", "generateuuidv7", "generateulid");
+
+    // functions JSQLParser and ClickHouse agree on; anything else is left for EXPLAIN to judge
+    private static final Set<String> KNOWN_FUNCTIONS = Set.of(
+            "count", "sum", "avg", "min", "max", "any", "anylast", "argmin", "argmax", "uniq", "uniqexact",
+            "countif", "sumif", "avgif", "minif", "maxif", "uniqif", "grouparray", "groupuniqarray", "median",
+            "quantile", "quantiles", "stddevpop", "stddevsamp", "varpop", "varsamp", "topk",
+            "todate", "todatetime", "todatetime64", "tostartofday", "tostartofhour", "tostartofminute",
+            "tostartofweek", "tostartofmonth", "tostartofquarter", "tostartofyear", "tomonday", "toyyyymm",
+            "toyyyymmdd", "toyear", "tomonth", "todayofmonth", "todayofweek", "tohour", "tominute", "today",
+            "yesterday", "now", "datediff", "date_diff", "dateadd", "date_add", "datesub", "date_sub",
+            "adddays", "addhours", "addmonths", "subtractdays", "subtracthours", "subtractmonths",
+            "formatdatetime", "toint32", "toint64", "touint32", "touint64", "tofloat64", "tostring",
+            "todecimal64", "round", "floor", "ceil", "abs", "if", "multiif", "coalesce", "ifnull", "nullif",
+            "lower", "upper", "length", "concat", "substring", "replaceall", "trim", "like", "position",
+            "lengthutf8", "has", "arrayjoin", "arraymap", "arrayfilter", "tuple", "empty", "notempty",
+            "isnull", "isnotnull", "greatest", "least", "divide", "intdiv", "modulo");
+
+    private final Cache<String, ValidationResult> cache;
+
+    /**
+     * {@code sql} is the canonical (re-printed) statement; {@code tables} the fully-qualified
+     * names of the tables it reads.
+     */
+    public record ValidationResult(boolean valid, String sql, String message, boolean needsServerCheck,
+                                   Set<String> tables, boolean deterministic) {
         public static ValidationResult ok(String sql) {
-            return new ValidationResult(true, sql, null);
+            return new ValidationResult(true, sql, null, false, Set.of(), true);
+        }
+
+        public static ValidationResult ok(String sql, boolean needsServerCheck, Set<String> tables, boolean deterministic) {
+            return new ValidationResult(true, sql, null, needsServerCheck, tables, deterministic);
         }
 
         public static ValidationResult invalid(String msg) {
-            return new ValidationResult(false, null, msg);
+            return new ValidationResult(false, null, msg, false, Set.of(), true);
         }
     }
 
-    // simple table whitelist check based on provided candidates
+    public SqlValidator(Environment env) {
+        long maxSize = Long.parseLong(env.getProperty("validator.cache-size", "10000"));
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).build();
+    }
+
+    /**
+     * Parses once and checks, on the AST: SELECT only, table whitelist, column references against
+     * the candidates' columns (a qualified column against the table its qualifier names), forbidden
+     * functions / table functions, LIMIT cap.
+     * {@code needsServerCheck} is set when the SQL uses functions not known to be understood the same
+     * way locally and by ClickHouse, or qualifies columns with names that do not resolve to a
+     * candidate table (subqueries, CTEs); only then is an EXPLAIN round trip worth making.
+     * {@code deterministic} is false when the result depends on the time or randomness ({@code now()},
+     * {@code today()}, {@code rand()}, ...).
+     * Results are cached per (SQL text, candidate schema).
+     */
     public ValidationResult validate(String rawSql, List<TableMeta> allowedTables) {
+        String key = SchemaFingerprint.of(allowedTables) + "|" + rawSql;
+        return cache.get(key, k -> doValidate(rawSql, allowedTables));
+    }
+
+    private ValidationResult doValidate(String rawSql, List<TableMeta> allowedTables) {
         try {
             Statement stmt = CCJSqlParserUtil.parse(rawSql);
             if (!(stmt instanceof Select)) {
@@ -37,9 +105,13 @@ public class SqlValidator {
             }
             Select select = (Select) stmt;
 
-            // extract tables referenced
-            TablesNamesFinder finder = new TablesNamesFinder();
-            List<String> tables = finder.getTableList((Statement) select);
+            // one AST walk collects tables, columns, functions and aliases
+            ReferenceCollector refs = new ReferenceCollector();
+            Set<String> tables = refs.getTables((Statement) select);
+
+            if (refs.forbidden != null) {
+                return ValidationResult.invalid("Disallowed SQL constructs detected: " + refs.forbidden);
+            }
 
             Set<String> allowedFqns = allowedTables.stream()
                     .map(TableMeta::fqName).collect(Collectors.toSet());
@@ -47,13 +119,52 @@ public class SqlValidator {
             Set<String> allowedShort = allowedTables.stream()
                     .map(TableMeta::table).collect(Collectors.toSet());
 
+            Set<String> referenced = new TreeSet<>();
             for (String t : tables) {
-                String clean = t.replace("\"", "");
-                if (!(allowedFqns.contains(clean) || allowedShort.contains(clean))) {
+                String clean = t.replace("\"", "").replace("`", "");
+                if (clean.startsWith("system.")) {
+                    return ValidationResult.invalid("Disallowed SQL constructs detected: system tables");
+                }
+                if (allowedFqns.contains(clean)) {
+                    referenced.add(clean);
+                } else if (allowedShort.contains(clean)) {
+                    // unqualified: every candidate with that name, so none is missed on invalidation
+                    for (TableMeta m : allowedTables) {
+                        if (m.table().equals(clean)) referenced.add(m.fqName());
+                    }
+                } else {
                     return ValidationResult.invalid("Referenced disallowed table: " + clean);
                 }
             }
 
+            Set<String> allowedColumns = new HashSet<>();
+            for (TableMeta t : allowedTables) allowedColumns.addAll(t.columns());
+            Map<String, List<TableMeta>> byQualifier = qualifiers(refs.tableRefs, allowedTables);
+            // a qualifier naming a subquery, CTE or anything else not resolvable here: ClickHouse decides
+            boolean unresolvedQualifier = false;
+            List<String> unknown = new ArrayList<>();
+            for (Column c : refs.columns) {
+                String name = unquote(c.getColumnName());
+                String qualifier = qualifierOf(c);
+                // Nested columns are listed as "n.x" and parse as column x of table n
+                if (qualifier != null && allowedColumns.contains(qualifier + "." + name)) continue;
+                if (qualifier != null) {
+                    List<TableMeta> owners = byQualifier.get(qualifier);
+                    if (owners != null) {
+                        if (owners.stream().noneMatch(t -> t.columns().contains(name))) unknown.add(c.getFullyQualifiedName());
+                        continue;
+                    }
+                    unresolvedQualifier = true;
+                }
+                if (allowedColumns.contains(name) || refs.aliases.contains(name) || refs.lambdaParams.contains(name)) {
+                    continue;
+                }
+                unknown.add(c.getFullyQualifiedName());
+            }
+            if (!unknown.isEmpty()) {
+                return ValidationResult.invalid("Unknown column(s): " + String.join(", ", new LinkedHashSet<>(unknown)));
+            }
+
             // ensure limit
             if (!hasLimit(select)) {
                 addLimit(select, maxRows);
@@ -62,15 +173,8 @@ public class SqlValidator {
                 if (lim > maxRows) setLimit(select, maxRows);
             }
 
-            // disallow certain constructs via simple string checks
-            String s = select.toString().toLowerCase();
-            if (s.contains("insert ") || s.contains("update ") || s.contains("delete ") ||
-                    s.contains("create ") || s.contains("drop ") || s.contains("into outfile") ||
-                    s.contains("system.") || s.contains("file(")) {
-                return ValidationResult.invalid("Disallowed SQL constructs detected.");
-            }
-
-            return ValidationResult.ok(select.toString());
+            return ValidationResult.ok(select.toString(), refs.unknownFunctions || unresolvedQualifier, Set.copyOf(referenced),
+                    !refs.nondeterministic);
         } catch (JSQLParserException e) {
             return ValidationResult.invalid("SQL parse error: " + e.getMessage());
         } catch (Exception e) {
@@ -78,6 +182,147 @@ public class SqlValidator {
         }
     }
 
+    // table name, db.table and alias of each referenced candidate table -> the candidates it may mean
+    private static Map<String, List<TableMeta>> qualifiers(List<Table> tableRefs, List<TableMeta> allowedTables) {
+        Map<String, List<TableMeta>> out = new HashMap<>();
+        for (Table t : tableRefs) {
+            String name = unquote(t.getName());
+            String db = unquote(t.getSchemaName());
+            List<TableMeta> metas = allowedTables.stream()
+                    .filter(m -> m.table().equals(name) && (db == null || m.database().equals(db)))
+                    .toList();
+            if (metas.isEmpty()) continue;
+            out.computeIfAbsent(name, k -> new ArrayList<>()).addAll(metas);
+            if (db != null) out.computeIfAbsent(db + "." + name, k -> new ArrayList<>()).addAll(metas);
+            if (t.getAlias() != null) out.computeIfAbsent(unquote(t.getAlias().getName()), k -> new ArrayList<>()).addAll(metas);
+        }
+        return out;
+    }
+
+    private static String qualifierOf(Column c) {
+        Table t = c.getTable();
+        if (t == null || t.getName() == null) return null;
+        String name = unquote(t.getName());
+        return t.getSchemaName() == null ? name : unquote(t.getSchemaName()) + "." + name;
+    }
+
+    static String unquote(String s) {
+        if (s == null || s.length() < 2) return s;
+        char first = s.charAt(0);
+        if ((first == '`' || first == '"') && s.charAt(s.length() - 1) == first) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    /**
+     * Extends the table finder to also record table and column references, select/CTE aliases, lambda
+     * parameters and the first forbidden construct encountered. {@link SqlRepairer} rewrites the
+     * recorded nodes in place.
+     */
+    static final class ReferenceCollector extends TablesNamesFinder<Void> {
+        final List<Table> tableRefs = new ArrayList<>();
+        final List<Column> columns = new ArrayList<>();
+        final Set<String> aliases = new HashSet<>();
+        final Set<String> lambdaParams = new HashSet<>();
+        String forbidden;
+        boolean unknownFunctions;
+        boolean nondeterministic;
+
+        @Override
+        public <S> Void visit(Column column, S context) {
+            columns.add(column);
+            return super.visit(column, context);
+        }
+
+        @Override
+        public <S> Void visit(SelectItem<?> item, S context) {
+            Alias alias = item.getAlias();
+            if (alias != null) aliases.add(unquote(alias.getName()));
+            item.getExpression().accept(this, context);
+            return null;
+        }
+
+        @Override
+        public <S> Void visit(PlainSelect plainSelect, S context) {
+            if (plainSelect.getIntoTables() != null && !plainSelect.getIntoTables().isEmpty()) {
+                forbidden = "SELECT INTO";
+            }
+            // ORDER BY / GROUP BY are not walked by the table finder but may reference columns
+            if (plainSelect.getOrderByElements() != null) {
+                for (OrderByElement o : plainSelect.getOrderByElements()) o.getExpression().accept(this, context);
+            }
+            if (plainSelect.getGroupBy() != null && plainSelect.getGroupBy().getGroupByExpressionList() != null) {
+                for (Object e : plainSelect.getGroupBy().getGroupByExpressionList()) {
+                    ((Expression) e).accept(this, context);
+                }
+            }
+            return super.visit(plainSelect, context);
+        }
+
+        @Override
+        public <S> Void visit(WithItem<?> withItem, S context) {
+            aliases.add(unquote(withItem.getAliasName()));
+            return super.visit(withItem, context);
+        }
+
+        @Override
+        public <S> Void visit(Table table, S context) {
+            tableRefs.add(table);
+            if (table.getAlias() != null) aliases.add(unquote(table.getAlias().getName()));
+            return super.visit(table, context);
+        }
+
+        @Override
+        public <S> Void visit(ParenthesedSelect subSelect, S context) {
+            if (subSelect.getAlias() != null) aliases.add(unquote(subSelect.getAlias().getName()));
+            return super.visit(subSelect, context);
+        }
+
+        @Override
+        public <S> Void visit(LambdaExpression lambda, S context) {
+            lambdaParams.addAll(lambda.getIdentifiers());
+            return super.visit(lambda, context);
+        }
+
+        // JSQLParser reads ClickHouse's "x -> expr" as a JSON operator: treat the left side as a
+        // lambda parameter and let the server confirm the rest
+        @Override
+        public <S> Void visit(JsonExpression json, S context) {
+            if (json.getExpression() instanceof Column c) lambdaParams.add(unquote(c.getColumnName()));
+            unknownFunctions = true;
+            return super.visit(json, context);
+        }
+
+        @Override
+        public <S> Void visit(Function function, S context) {
+            String name = function.getName() == null ? "" : function.getName().toLowerCase(Locale.ROOT);
+            if (FORBIDDEN_FUNCTIONS.contains(name)) {
+                forbidden = name + "()";
+            } else if (!KNOWN_FUNCTIONS.contains(name)) {
+                unknownFunctions = true;
+            }
+            if (NONDETERMINISTIC_FUNCTIONS.contains(name)) nondeterministic = true;
+            return super.visit(function, context);
+        }
+
+        // CURRENT_TIMESTAMP, CURRENT_DATE, ...
+        @Override
+        public <S> Void visit(TimeKeyExpression timeKey, S context) {
+            nondeterministic = true;
+            return super.visit(timeKey, context);
+        }
+
+        @Override
+        public <S> Void visit(TableFunction tableFunction, S context) {
+            String name = tableFunction.getFunction().getName().toLowerCase(Locale.ROOT);
+            if (!"numbers".equals(name)) {
+                forbidden = "table function " + name + "()";
+            }
+            return super.visit(tableFunction, context);
+        }
+    }
+
     private boolean hasLimit(Select sel) {
         Select body = sel.getSelectBody();
         if (body instanceof PlainSelect plain) {
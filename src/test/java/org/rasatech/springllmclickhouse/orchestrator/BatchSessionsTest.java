@@ -0,0 +1,119 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.service.ClickHouseSession;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.sql.SQLNonTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class BatchSessionsTest {
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final BatchSessions sessions = new BatchSessions(1);
+
+    @Test
+    void secondStatementWaitsForTheTurnWithoutHoldingAThread() {
+        Sinks.Empty<Void> firstDone = Sinks.empty();
+        AtomicInteger ran = new AtomicInteger();
+
+        sessions.withConnection(lease -> run(lease, "a").then(firstDone.asMono())).subscribe();
+        Mono<String> second = sessions.withConnection(lease -> run(lease, "a").doOnNext(r -> ran.incrementAndGet()));
+        Disposable waiting = second.subscribe();
+
+        assertThat(ran).hasValue(0);
+        firstDone.tryEmitEmpty();
+        assertThat(ran).hasValue(1);
+        assertThat(waiting.isDisposed()).isTrue();
+        // the same user's connection is reused
+        assertThat(opened).hasValue(1);
+    }
+
+    @Test
+    void cancelledWaiterGivesUpItsTurn() {
+        Sinks.Empty<Void> firstDone = Sinks.empty();
+        sessions.withConnection(lease -> run(lease, "a").then(firstDone.asMono())).subscribe();
+
+        Disposable cancelled = sessions.withConnection(lease -> run(lease, "a")).subscribe();
+        String[] third = new String[1];
+        sessions.withConnection(lease -> run(lease, "b")).subscribe(r -> third[0] = r);
+        cancelled.dispose();
+        firstDone.tryEmitEmpty();
+
+        assertThat(third[0]).isEqualTo("b");
+        // the idle connection of user a made way for user b
+        assertThat(opened).hasValue(2);
+    }
+
+    @Test
+    void turnCancelledMidStatementPassesOnOnlyWhenTheStatementReturns() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Disposable first = sessions.withConnection(lease -> Mono.fromCallable(() -> lease.call("a", this::open, s -> {
+                    running.countDown();
+                    // like a JDBC call, does not stop when the cancelled task's thread is interrupted
+                    while (finish.getCount() > 0) LockSupport.parkNanos(1_000_000);
+                    return "a";
+                }))
+                .subscribeOn(Schedulers.boundedElastic()))
+                .subscribe();
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CountDownLatch secondRan = new CountDownLatch(1);
+        sessions.withConnection(lease -> run(lease, "b")).subscribe(r -> secondRan.countDown());
+        first.dispose();
+        assertThat(secondRan.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        finish.countDown();
+        assertThat(secondRan.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void lostConnectionIsNotReused() {
+        ClickHouseSession[] first = new ClickHouseSession[1];
+        Mono<String> lost = sessions.withConnection(lease -> Mono.fromCallable(() -> lease.call("a", this::open, s -> {
+            first[0] = s;
+            throw new SQLNonTransientConnectionException("connection reset");
+        })));
+        assertThatThrownBy(() -> lost.block(Duration.ofSeconds(5))).hasCauseInstanceOf(SQLNonTransientConnectionException.class);
+
+        sessions.withConnection(lease -> run(lease, "a")).block(Duration.ofSeconds(5));
+        verify(first[0]).close();
+        assertThat(opened).hasValue(2);
+    }
+
+    @Test
+    void waitersFailWhenTheBatchCloses() {
+        sessions.withConnection(lease -> Mono.never()).subscribe();
+        Mono<String> waiting = sessions.withConnection(lease -> run(lease, "a"));
+        Throwable[] failure = new Throwable[1];
+        waiting.subscribe(r -> { }, e -> failure[0] = e);
+
+        sessions.close();
+
+        assertThat(failure[0]).isInstanceOf(IllegalStateException.class);
+        assertThat(sessions.withConnection(lease -> run(lease, "a")).onErrorReturn("closed")
+                .block(Duration.ofSeconds(5))).isEqualTo("closed");
+    }
+
+    private Mono<String> run(BatchSessions.Lease lease, String userId) {
+        return Mono.fromCallable(() -> lease.call(userId, this::open, s -> userId));
+    }
+
+    private ClickHouseSession open() {
+        opened.incrementAndGet();
+        return mock(ClickHouseSession.class);
+    }
+}
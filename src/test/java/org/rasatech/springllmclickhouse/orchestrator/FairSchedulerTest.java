@@ -0,0 +1,93 @@
+package org.rasatech.springllmclickhouse.orchestrator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.dto.Priority;
+import org.rasatech.springllmclickhouse.service.QueryMetrics;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairSchedulerTest {
+
+    private final QueryMetrics metrics = new QueryMetrics(new SimpleMeterRegistry());
+
+    @Test
+    void waitersGoInOrderOfTheirUsersWeightedTags() {
+        FairScheduler.Stage stage = stage(1, 10, 10, Map.of("a", 2.0));
+        FairScheduler.Permit blocker = stage.acquire(ctx("x")).block();
+
+        List<String> order = new ArrayList<>();
+        for (String user : List.of("a", "a", "a", "a", "b", "b")) {
+            // each grant is handed straight back, which dispatches the next waiter
+            stage.acquire(ctx(user)).subscribe(p -> {
+                order.add(user);
+                p.release();
+            });
+        }
+        blocker.release();
+
+        // a has twice b's weight: tags a 0, .5, 1, 1.5 and b 0, 1; ties go to the earlier arrival
+        assertThat(order).containsExactly("a", "b", "a", "a", "b", "a");
+        assertThat(stage.stats().running()).isZero();
+    }
+
+    @Test
+    void userOverItsQueueCapIsRejectedWhileOthersStillQueue() {
+        FairScheduler.Stage stage = stage(1, 1, 2, Map.of());
+        stage.acquire(ctx("x")).block();
+        stage.acquire(ctx("a")).subscribe();
+        stage.acquire(ctx("a")).subscribe();
+
+        Throwable[] rejected = new Throwable[1];
+        stage.acquire(ctx("a")).subscribe(p -> { }, e -> rejected[0] = e);
+        stage.acquire(ctx("b")).subscribe();
+
+        assertThat(rejected[0]).isInstanceOf(SchedulerRejectedException.class).hasMessageContaining("for user a");
+        assertThat(stage.stats().queued()).isEqualTo(3);
+    }
+
+    @Test
+    void cancelledWaiterGivesUpItsPlaceAndIsNeverGranted() {
+        FairScheduler.Stage stage = stage(1, 1, 1, Map.of());
+        FairScheduler.Permit blocker = stage.acquire(ctx("x")).block();
+        boolean[] granted = new boolean[1];
+        Disposable waiter = stage.acquire(ctx("a")).subscribe(p -> granted[0] = true);
+        assertThat(stage.stats().queued()).isEqualTo(1);
+
+        waiter.dispose();
+        assertThat(stage.stats().queued()).isZero();
+        // the queue cap of 1 counts only live waiters
+        List<FairScheduler.Permit> next = new ArrayList<>();
+        stage.acquire(ctx("a")).subscribe(next::add);
+
+        blocker.release();
+        assertThat(granted[0]).isFalse();
+        assertThat(next).hasSize(1);
+        assertThat(stage.stats().running()).isEqualTo(1);
+    }
+
+    @Test
+    void idleUserIsForgotten() {
+        FairScheduler.Stage stage = stage(2, 1, 10, Map.of());
+        FairScheduler.Permit permit = stage.acquire(ctx("a")).block();
+        assertThat(stage.tracks("a")).isTrue();
+
+        permit.release();
+        assertThat(stage.tracks("a")).isFalse();
+        assertThat(stage.stats()).isEqualTo(new FairScheduler.StageStats(0, 0, 2));
+    }
+
+    private FairScheduler.Stage stage(int maxConcurrent, int perUserMaxConcurrent, int perUserMaxQueued,
+                                      Map<String, Double> weights) {
+        return new FairScheduler.Stage("llm", maxConcurrent, perUserMaxConcurrent, perUserMaxQueued, 100, weights, metrics);
+    }
+
+    private static QueryContext ctx(String user) {
+        return QueryContext.of(user, Priority.NORMAL);
+    }
+}
@@ -0,0 +1,38 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CostGuardTest {
+
+    private final CostGuard guard = new CostGuard(new MockEnvironment()
+            .withProperty("cost.max-rows", "1000")
+            .withProperty("cost.max-marks", "10")
+            .withProperty("cost.on-exceed", "rewrite"));
+
+    @Test
+    void queryWithinEveryBudgetPasses() {
+        assertThat(guard.check(new QueryCost(1, 1000, 10))).isNull();
+    }
+
+    @Test
+    void rowsOverBudgetAreCappedAndFlagged() {
+        QueryCost cost = new QueryCost(1, 5000, 2);
+        assertThat(guard.check(cost)).contains("5000 rows");
+        assertThat(guard.onExceed(cost)).isEqualTo(CostGuard.OnExceed.REWRITE);
+
+        String capped = guard.rewrite("SELECT * FROM t");
+        assertThat(capped).contains("max_rows_to_read = 1000").contains("read_overflow_mode = 'break'");
+        assertThat(guard.notice(capped)).contains("1000 rows");
+        assertThat(guard.notice("SELECT * FROM t")).isNull();
+    }
+
+    @Test
+    void marksOverBudgetAloneAreRepairedInsteadOfRewritten() {
+        QueryCost cost = new QueryCost(1, 500, 20);
+        assertThat(guard.check(cost)).contains("20 marks");
+        assertThat(guard.onExceed(cost)).isEqualTo(CostGuard.OnExceed.REPAIR);
+    }
+}
@@ -0,0 +1,168 @@
+package org.rasatech.springllmclickhouse.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OllamaBackendPoolTest {
+
+    private final List<Stub> stubs = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        stubs.forEach(s -> s.server.stop(0));
+    }
+
+    @Test
+    void routesToLeastOutstandingBackend() {
+        Stub a = stub(200, "{\"models\":[]}");
+        Stub b = stub(200, "{\"models\":[]}");
+        OllamaBackendPool pool = pool(List.of(a, b), 2, 10, 30_000);
+
+        OllamaBackendPool.Lease first = pool.acquire().block();
+        OllamaBackendPool.Lease second = pool.acquire().block();
+        assertThat(second.backend()).isNotSameAs(first.backend());
+
+        // first's backend now has nothing outstanding, the other one has one lease
+        first.release();
+        OllamaBackendPool.Lease third = pool.acquire().block();
+        assertThat(third.backend()).isSameAs(first.backend());
+
+        OllamaBackendPool.Lease fourth = pool.acquire().block();
+        for (OllamaBackendPool.Lease l : List.of(second, third, fourth)) generate(l);
+        assertThat(a.generates.get() + b.generates.get()).isEqualTo(3);
+        assertThat(Math.abs(a.generates.get() - b.generates.get())).isEqualTo(1);
+    }
+
+    @Test
+    void waiterGetsFreedCapacity() {
+        OllamaBackendPool pool = pool(List.of(stub(200, "{\"models\":[]}")), 1, 10, 30_000);
+        OllamaBackendPool.Lease held = pool.acquire().block();
+
+        StepVerifier.create(pool.acquire())
+                .then(held::release)
+                .assertNext(l -> assertThat(l.backend()).isSameAs(held.backend()))
+                .verifyComplete();
+    }
+
+    @Test
+    void rejectsUpFrontWhenEstimatedWaitExceedsDeadline() {
+        // one slot and the initial 5 s service estimate: a queued request could not start within 1 s
+        OllamaBackendPool pool = pool(List.of(stub(200, "{\"models\":[]}")), 1, 10, 1_000);
+        pool.acquire().block();
+
+        long start = System.nanoTime();
+        StepVerifier.create(pool.acquire())
+                .expectErrorSatisfies(e -> assertThat(e).isInstanceOf(OllamaOverloadedException.class)
+                        .hasMessageContaining("Estimated Ollama wait"))
+                .verify(Duration.ofSeconds(1));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+    }
+
+    @Test
+    void rejectsWhenWaitQueueIsFull() {
+        OllamaBackendPool pool = pool(List.of(stub(200, "{\"models\":[]}")), 1, 1, 60_000);
+        pool.acquire().block();
+        var queued = pool.acquire().subscribe();
+
+        StepVerifier.create(pool.acquire())
+                .expectErrorSatisfies(e -> assertThat(e).isInstanceOf(OllamaOverloadedException.class)
+                        .hasMessageContaining("queue full"))
+                .verify(Duration.ofSeconds(1));
+        queued.dispose();
+    }
+
+    @Test
+    void skipsBackendThatFailsHealthCheckAndWarmsUpMissingModel() throws Exception {
+        Stub down = stub(500, "{}");
+        Stub up = stub(200, "{\"models\":[]}");
+        OllamaBackendPool pool = pool(List.of(down, up), 2, 10, 30_000);
+
+        pool.checkHealth();
+        awaitUntil(() -> !pool.backends().get(0).healthy() && up.generates.get() == 1);
+        // the healthy backend did not have the model resident: a warm-up generate was sent
+        assertThat(up.lastBody).contains("\"keep_alive\"").doesNotContain("prompt");
+
+        OllamaBackendPool.Lease l1 = pool.acquire().block();
+        OllamaBackendPool.Lease l2 = pool.acquire().block();
+        assertThat(l1.backend().url()).isEqualTo(up.url());
+        assertThat(l2.backend().url()).isEqualTo(up.url());
+    }
+
+    private static void generate(OllamaBackendPool.Lease lease) {
+        lease.backend().client().post().uri("/api/generate").bodyValue("{\"prompt\":\"x\"}")
+                .retrieve().toBodilessEntity().block(Duration.ofSeconds(5));
+        lease.release();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) throw new AssertionError("condition not met within 5 s");
+            Thread.sleep(20);
+        }
+    }
+
+    private OllamaBackendPool pool(List<Stub> backends, int perBackend, int maxWaiters, long maxWaitMs) {
+        return new OllamaBackendPool(WebClient.builder(), backends.stream().map(Stub::url).toList(),
+                "sqlcoder:7b", "30m", perBackend, maxWaiters, maxWaitMs);
+    }
+
+    private Stub stub(int psStatus, String psBody) {
+        try {
+            Stub s = new Stub(psStatus, psBody);
+            stubs.add(s);
+            return s;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ollama stand-in: {@code /api/ps} answers with a fixed status and body, {@code /api/generate} is counted.
+     */
+    private static final class Stub {
+        final HttpServer server;
+        final AtomicInteger generates = new AtomicInteger();
+        volatile String lastBody = "";
+
+        Stub(int psStatus, String psBody) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/api/ps", ex -> respond(ex, psStatus, psBody));
+            server.createContext("/api/generate", ex -> {
+                lastBody = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                generates.incrementAndGet();
+                respond(ex, 200, "{\"done\":true}");
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        private static void respond(HttpExchange ex, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.rasatech.springllmclickhouse.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.util.SqlFenceScanner;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OllamaClientTest {
+
+    private HttpServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) server.stop(0);
+    }
+
+    @Test
+    void fencedResponseIsCutOffBeforeTheFinalChunk() throws IOException {
+        OllamaClient client = client(List.of("Here you go:\n``", "`sql\nSELECT 1", "\n``", "`\n", "Explanation: it selects one."));
+
+        OllamaClient.Generation gen = client.generate("q").block(Duration.ofSeconds(5));
+
+        assertThat(gen.sql()).isEqualTo("SELECT 1");
+        // Ollama's final chunk never arrives: token counts come from the streamed chunks
+        assertThat(gen.usage().promptTokens()).isEqualTo(-1);
+        assertThat(gen.usage().evalTokens()).isEqualTo(4);
+    }
+
+    @Test
+    void unfencedResponseIsReadToTheFinalChunk() throws IOException {
+        OllamaClient client = client(List.of("SELECT count() ", "FROM shop.orders;"));
+
+        OllamaClient.Generation gen = client.generate("q").block(Duration.ofSeconds(5));
+
+        assertThat(gen.sql()).isEqualTo("SELECT count() FROM shop.orders;");
+        assertThat(gen.usage().promptTokens()).isEqualTo(42);
+        assertThat(gen.usage().evalTokens()).isEqualTo(7);
+    }
+
+    @Test
+    void extractSqlPrefersTheFencedBlock() {
+        assertThat(OllamaClient.extractSql("Query:\n```SQL\nSELECT a FROM t\n```\nSELECT b FROM t;")).isEqualTo("SELECT a FROM t");
+        // cut off before the closing fence
+        assertThat(OllamaClient.extractSql("```sql\nSELECT a FROM t\n")).isEqualTo("SELECT a FROM t");
+        assertThat(OllamaClient.extractSql("Sure. SELECT a FROM t; -- done")).isEqualTo("SELECT a FROM t;");
+        assertThat(OllamaClient.extractSql("  no query here ")).isEqualTo("no query here");
+    }
+
+    @Test
+    void extractSqlReadsWhatTheFenceScannerKept() {
+        assertThat(scanned(" ``", "`s", "ql\nSELECT 1\n``", "`", "\nExplanation")).isEqualTo("SELECT 1");
+        assertThat(scanned("```SQL\nSELECT a\n", "FROM t\n```")).isEqualTo("SELECT a\nFROM t");
+        // no SQL fence: read to the end, then the first statement
+        assertThat(scanned("```\nSELECT a FROM t;\n", "```")).isEqualTo("SELECT a FROM t;");
+        assertThat(scanned("SELECT a ", "FROM t; -- all")).isEqualTo("SELECT a FROM t;");
+    }
+
+    // what generate() hands to extractSql: fragments up to the one that closes the fence
+    private static String scanned(String... fragments) {
+        SqlFenceScanner scanner = new SqlFenceScanner();
+        for (String f : fragments) {
+            if (scanner.append(f)) break;
+        }
+        return OllamaClient.extractSql(scanner.text());
+    }
+
+    // streams one NDJSON chunk per fragment, then Ollama's final chunk
+    private OllamaClient client(List<String> fragments) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/generate", ex -> {
+            ex.getRequestBody().readAllBytes();
+            ex.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) {
+                for (String f : fragments) {
+                    String json = f.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+                    out.write(("{\"response\":\"" + json + "\",\"done\":false}\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                out.write("{\"response\":\"\",\"done\":true,\"prompt_eval_count\":42,\"eval_count\":7,\"eval_duration\":1000000}\n"
+                        .getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // client hung up after the closing fence
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        OllamaBackendPool pool = new OllamaBackendPool(WebClient.builder(), List.of(url), "sqlcoder:7b", "30m", 1, 10, 30_000);
+        return new OllamaClient(pool, new MockEnvironment());
+    }
+}
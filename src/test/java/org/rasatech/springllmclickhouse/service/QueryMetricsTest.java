@@ -0,0 +1,57 @@
+package org.rasatech.springllmclickhouse.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final QueryMetrics metrics = new QueryMetrics(registry);
+
+    @Test
+    void stageCancelledAfterItsValueIsRecordedOnce() {
+        // the orchestrator's retry loop: expand(...).next() cancels the stage once its value arrived
+        QueryMetrics.Timings timings = new QueryMetrics.Timings();
+        Integer settled = Mono.just(0)
+                .expand(i -> i == 0 ? metrics.time(QueryMetrics.COST, timings, Mono.just(1)) : Mono.empty())
+                .filter(i -> i == 1)
+                .next()
+                .block();
+
+        assertThat(settled).isEqualTo(1);
+        assertThat(registry.get("nlq.stage").tag("stage", QueryMetrics.COST).timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelledStageIsRecorded() {
+        metrics.time(QueryMetrics.LLM, null, Mono.never()).subscribe().dispose();
+        metrics.time(QueryMetrics.LLM, null, Mono.delay(Duration.ofMillis(1))).block();
+
+        assertThat(registry.get("nlq.stage").tag("stage", QueryMetrics.LLM).timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void stagesAddUpPerRequestInPipelineOrder() {
+        QueryMetrics.Timings timings = new QueryMetrics.Timings();
+        metrics.record(QueryMetrics.LLM, timings, 2_000_000);
+        metrics.record(QueryMetrics.VALIDATE, timings, 500_000);
+        // a retry adds to the same stage
+        metrics.record(QueryMetrics.LLM, timings, 2_000_000);
+
+        assertThat(timings.toMillis()).containsEntry(QueryMetrics.LLM, 4.0).containsEntry(QueryMetrics.VALIDATE, 0.5);
+        assertThat(timings.toMillis().keySet()).containsExactly(QueryMetrics.LLM, QueryMetrics.VALIDATE, "total");
+        assertThat(registry.get("nlq.stage").tag("stage", QueryMetrics.LLM).timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void failureReasonTagIsTheKindOfTheMessage() {
+        assertThat(QueryMetrics.reasonOf("SQL parse error: Encountered \"FORM\" at line 1")).isEqualTo("sql_parse_error");
+        assertThat(QueryMetrics.reasonOf("Unknown column(s): o.user_name")).isEqualTo("unknown_column_s");
+        assertThat(QueryMetrics.reasonOf(" ")).isEqualTo("unknown");
+    }
+}
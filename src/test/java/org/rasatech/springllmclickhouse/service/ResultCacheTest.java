@@ -0,0 +1,123 @@
+package org.rasatech.springllmclickhouse.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.dto.QueryResult;
+import org.rasatech.springllmclickhouse.dto.ResultFormat;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ResultCacheTest {
+
+    private static final String SQL = "SELECT amount FROM shop.orders LIMIT 10";
+    private static final String SETTINGS = "{max_result_rows=100000}";
+    private static final QueryResult RESULT = QueryResult.ok(List.of(Map.of("amount", 1)));
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final ResultCache cache = new ResultCache(jdbc, new SimpleMeterRegistry(), new MockEnvironment());
+
+    @Test
+    void nothingIsPolledWhileTheCacheIsEmpty() {
+        cache.pollTableVersions();
+
+        verifyNoInteractions(jdbc);
+    }
+
+    @Test
+    void firstResultOfAnUnpolledTableIsNotKeptButStartsWatchingIt() {
+        versions("v1");
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), cache.generation(), RESULT);
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isNull();
+
+        cache.pollTableVersions();
+        // only the watched table is asked for
+        verify(jdbc).queryForList(contains("('shop', 'orders')"));
+
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), cache.generation(), RESULT);
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isSameAs(RESULT);
+    }
+
+    @Test
+    void resultStartedBeforeTheBaselinePollIsNotKept() {
+        versions("v1");
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), cache.generation(), RESULT);
+        long started = cache.generation();
+        cache.pollTableVersions();
+
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), started, RESULT);
+
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isNull();
+    }
+
+    @Test
+    void entryCachedAfterAnIdlePeriodSurvivesUnchangedTables() {
+        versions("v1");
+        cached();
+        versions("v2");
+        cache.pollTableVersions();
+        // idle: nothing is watched, nothing is polled
+        cache.pollTableVersions();
+
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), cache.generation(), RESULT);
+        cache.pollTableVersions();
+
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isSameAs(RESULT);
+        verify(jdbc, times(3)).queryForList(anyString());
+    }
+
+    @Test
+    void changedTableDropsItsEntries() {
+        versions("v1");
+        cached();
+
+        versions("v2");
+        cache.pollTableVersions();
+
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isNull();
+    }
+
+    @Test
+    void entryIsServedOnlyUnderTheSameSettings() {
+        versions("v1");
+        cached();
+
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isSameAs(RESULT);
+        assertThat(cache.get(SQL, "{max_result_rows=10}", ResultFormat.ROWS)).isNull();
+    }
+
+    @Test
+    void entryIsServedForTheSameSqlAndFormatOnly() {
+        versions("v1");
+        cached();
+
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isSameAs(RESULT);
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.COLUMNAR)).isNull();
+        assertThat(cache.get(SQL.replace("10", "20"), SETTINGS, ResultFormat.ROWS)).isNull();
+    }
+
+    // the first result of a table only starts watching it; after a poll the next one is kept
+    private void cached() {
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), cache.generation(), RESULT);
+        cache.pollTableVersions();
+        cache.put(SQL, SETTINGS, ResultFormat.ROWS, Set.of("shop.orders"), cache.generation(), RESULT);
+        assertThat(cache.get(SQL, SETTINGS, ResultFormat.ROWS)).isSameAs(RESULT);
+    }
+
+    private void versions(String version) {
+        when(jdbc.queryForList(anyString()))
+                .thenReturn(List.of(Map.of("database", "shop", "name", "orders", "version", version)));
+    }
+}
@@ -0,0 +1,50 @@
+package org.rasatech.springllmclickhouse.service;
+
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SchemaIndexTest {
+
+    private static final SchemaIndex INDEX = SchemaIndex.build(List.of(
+            new TableMeta("shop", "orders", List.of("order_id", "user_id", "amount", "created_at")),
+            new TableMeta("shop", "users", List.of("user_id", "user_name", "country")),
+            new TableMeta("shop", "payments", List.of("payment_id", "order_id", "amount", "method")),
+            new TableMeta("shop", "refunds", List.of("refund_id", "payment_id", "amount")),
+            new TableMeta("web", "pageViews", List.of("view_id", "user_id", "page_path"))));
+
+    @Test
+    void tableNameHitOutranksColumnHit() {
+        assertThat(names(INDEX.search("payments by method", 5, 10))).containsExactly("shop.payments", "shop.refunds");
+        assertThat(names(INDEX.search("country", 5, 10))).containsExactly("shop.users");
+    }
+
+    @Test
+    void pluralsMatchSingularIdentifiers() {
+        assertThat(names(INDEX.search("orders", 5, 10))).isEqualTo(names(INDEX.search("order", 5, 10)))
+                .startsWith("shop.orders");
+        assertThat(names(INDEX.search("page views", 1, 10))).containsExactly("web.pageViews");
+    }
+
+    @Test
+    void stopWordsOnlyQueryMatchesNothingAndFallsBackToTheHead() {
+        assertThat(INDEX.search("show me all of it", 5, 10)).isEmpty();
+        assertThat(names(INDEX.head(2, 10))).containsExactly("shop.orders", "shop.users");
+    }
+
+    @Test
+    void prunedColumnsPreferMatchesAndKeepSchemaOrder() {
+        TableMeta orders = INDEX.search("when was each order created", 1, 2).get(0);
+
+        assertThat(orders.columns()).containsExactly("order_id", "created_at");
+        assertThat(INDEX.prune("shop.orders", "amount", 1).columns()).containsExactly("amount");
+        assertThat(INDEX.prune("shop.missing", "amount", 1)).isNull();
+    }
+
+    private static List<String> names(List<TableMeta> tables) {
+        return tables.stream().map(TableMeta::fqName).toList();
+    }
+}
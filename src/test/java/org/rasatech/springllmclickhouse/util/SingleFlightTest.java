@@ -0,0 +1,89 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuples;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>();
+    private final AtomicInteger runs = new AtomicInteger();
+    private final AtomicBoolean workCancelled = new AtomicBoolean();
+    private final Sinks.One<String> result = Sinks.one();
+
+    @Test
+    void concurrentCallersShareOneRun() {
+        StepVerifier.create(Mono.zip(call(), call()))
+                .then(() -> result.tryEmitValue("v"))
+                .expectNext(Tuples.of("v", "v"))
+                .verifyComplete();
+
+        assertThat(runs).hasValue(1);
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    @Test
+    void callerAfterCompletionStartsAFreshRun() {
+        result.tryEmitValue("v");
+        StepVerifier.create(call()).expectNext("v").verifyComplete();
+        StepVerifier.create(call()).expectNext("v").verifyComplete();
+
+        assertThat(runs).hasValue(2);
+    }
+
+    @Test
+    void oneCallerCancellingDoesNotStopTheOther() {
+        Disposable leaving = call().subscribe();
+
+        StepVerifier.create(call())
+                .then(leaving::dispose)
+                .then(() -> {
+                    assertThat(workCancelled).isFalse();
+                    result.tryEmitValue("v");
+                })
+                .expectNext("v")
+                .verifyComplete();
+        assertThat(runs).hasValue(1);
+    }
+
+    @Test
+    void workIsCancelledOnceTheLastCallerLeaves() {
+        Disposable first = call().subscribe();
+        Disposable second = call().subscribe();
+
+        first.dispose();
+        second.dispose();
+
+        assertThat(workCancelled).isTrue();
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    @Test
+    void errorReachesEveryCaller() {
+        Throwable[] first = new Throwable[1];
+        call().subscribe(v -> { }, e -> first[0] = e);
+
+        StepVerifier.create(call())
+                .then(() -> result.tryEmitError(new IllegalStateException("boom")))
+                .expectErrorMessage("boom")
+                .verify();
+        assertThat(first[0]).hasMessage("boom");
+        assertThat(runs).hasValue(1);
+        assertThat(flight.inFlight()).isZero();
+    }
+
+    private Mono<String> call() {
+        return flight.execute("q", () -> {
+            runs.incrementAndGet();
+            return result.asMono().doOnCancel(() -> workCancelled.set(true));
+        });
+    }
+}
@@ -0,0 +1,54 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlFenceScannerTest {
+
+    @Test
+    void fencesSplitAcrossFragmentsAreFound() {
+        SqlFenceScanner scanner = new SqlFenceScanner();
+
+        assertThat(stopsAt(scanner, List.of("Here:\n ``", "`s", "ql\nSELECT 1\n`", "`", "`\n", "Done."))).isEqualTo(4);
+        assertThat(scanner.text()).isEqualTo("Here:\n ```sql\nSELECT 1\n```\n");
+    }
+
+    @Test
+    void closingFenceInTheSameFragmentAsTheOpening() {
+        assertThat(stopsAt(new SqlFenceScanner(), List.of("```sql SELECT 1 ```", "more"))).isEqualTo(0);
+    }
+
+    @Test
+    void languageTagIsCaseInsensitive() {
+        assertThat(stopsAt(new SqlFenceScanner(), List.of("```SQL\n", "SELECT 1\n", "```"))).isEqualTo(2);
+    }
+
+    @Test
+    void unfencedOrUntaggedAnswersAreReadToTheEnd() {
+        assertThat(stopsAt(new SqlFenceScanner(), List.of("SELECT count() ", "FROM t;"))).isEqualTo(-1);
+        // another language's block, or a bare one, is not taken for the SQL
+        assertThat(stopsAt(new SqlFenceScanner(), List.of("```\nSELECT 1;\n", "```\n"))).isEqualTo(-1);
+        assertThat(stopsAt(new SqlFenceScanner(), List.of("```python\nprint(1)\n```\n", "```sq", "l\nSELECT 1\n```")))
+                .isEqualTo(2);
+    }
+
+    @Test
+    void backticksBeforeTheOpeningFenceDoNotCloseIt() {
+        SqlFenceScanner scanner = new SqlFenceScanner();
+
+        assertThat(scanner.append("Use `amount`: ``")).isFalse();
+        assertThat(scanner.append("`sql\nSELECT amount FROM t")).isFalse();
+        assertThat(scanner.append("\n```")).isTrue();
+    }
+
+    // index of the fragment after which the scanner reports the closed block, or -1
+    private static int stopsAt(SqlFenceScanner scanner, List<String> fragments) {
+        for (int i = 0; i < fragments.size(); i++) {
+            if (scanner.append(fragments.get(i))) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,63 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlRepairerTest {
+
+    private static final List<TableMeta> SCHEMA = List.of(
+            new TableMeta("site", "web-events", List.of("event_id", "page-path", "referrer")));
+
+    @Test
+    void closestIgnoresCaseAndUnderscores() {
+        assertThat(SqlRepairer.closest("userId", List.of("user_id", "user_name"))).isEqualTo("user_id");
+        assertThat(SqlRepairer.closest("ORDER_TOTAL", List.of("order_total", "order_id"))).isEqualTo("order_total");
+    }
+
+    @Test
+    void closestRejectsTies() {
+        // one edit from each
+        assertThat(SqlRepairer.closest("amout", List.of("amount", "amoun"))).isNull();
+        // candidates past the limit do not make a tie
+        assertThat(SqlRepairer.closest("user", List.of("users", "usr_id", "uses_id"))).isEqualTo("users");
+    }
+
+    @Test
+    void closestLimitGrowsWithLengthUpToTwo() {
+        // under 8 characters: one edit
+        assertThat(SqlRepairer.closest("amnt", List.of("amount"))).isNull();
+        assertThat(SqlRepairer.closest("amont", List.of("amount"))).isEqualTo("amount");
+        // 8 and more: two edits, never three
+        assertThat(SqlRepairer.closest("custmr_name", List.of("customer_name"))).isEqualTo("customer_name");
+        assertThat(SqlRepairer.closest("cstmr_name", List.of("customer_name"))).isNull();
+    }
+
+    @Test
+    void levenshteinStopsPastTheLimit() {
+        assertThat(SqlRepairer.levenshtein("kitten", "sitting", 5)).isEqualTo(3);
+        assertThat(SqlRepairer.levenshtein("kitten", "sitting", 1)).isEqualTo(2);
+        assertThat(SqlRepairer.levenshtein("a", "abcd", 1)).isEqualTo(2);
+        assertThat(SqlRepairer.levenshtein("same", "same", 0)).isZero();
+    }
+
+    @Test
+    void bareIdentifiersAreQuotedOutsideLiteralsOnly() {
+        String sql = "SELECT page-path, count() FROM site.web-events "
+                + "WHERE referrer = 'web-events' AND page-path != 'it''s page-path' GROUP BY page-path";
+
+        assertThat(SqlRepairer.quoteBareIdentifiers(sql, SCHEMA)).isEqualTo(
+                "SELECT `page-path`, count() FROM site.`web-events` "
+                        + "WHERE referrer = 'web-events' AND `page-path` != 'it''s page-path' GROUP BY `page-path`");
+    }
+
+    @Test
+    void alreadyQuotedIdentifiersAreLeftAlone() {
+        String sql = "SELECT `page-path` FROM site.\"web-events\"";
+
+        assertThat(SqlRepairer.quoteBareIdentifiers(sql, SCHEMA)).isEqualTo(sql);
+    }
+}
@@ -0,0 +1,90 @@
+package org.rasatech.springllmclickhouse.util;
+
+import org.junit.jupiter.api.Test;
+import org.rasatech.springllmclickhouse.model.TableMeta;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlValidatorTest {
+
+    private static final List<TableMeta> SCHEMA = List.of(
+            new TableMeta("shop", "orders", List.of("order_id", "user_id", "amount")),
+            new TableMeta("shop", "users", List.of("user_id", "user_name")));
+
+    private final SqlValidator validator = new SqlValidator(new MockEnvironment());
+
+    @Test
+    void unknownColumnIsRejectedWithoutAServerRoundTrip() {
+        var vr = validator.validate("SELECT order_total FROM shop.orders", SCHEMA);
+        assertThat(vr.valid()).isFalse();
+        assertThat(vr.message()).contains("order_total");
+    }
+
+    @Test
+    void tablesOutsideTheCandidatesAndExternalFunctionsAreRejected() {
+        assertThat(validator.validate("SELECT * FROM shop.payments", SCHEMA).valid()).isFalse();
+        assertThat(validator.validate("SELECT name FROM system.tables", SCHEMA).valid()).isFalse();
+        assertThat(validator.validate("SELECT * FROM url('http://example.com/x.csv', CSV)", SCHEMA).valid()).isFalse();
+        assertThat(validator.validate("DROP TABLE shop.orders", SCHEMA).valid()).isFalse();
+    }
+
+    @Test
+    void knownFunctionsAndAliasesNeedNoServerCheck() {
+        var vr = validator.validate(
+                "SELECT user_id, sum(amount) AS total FROM shop.orders GROUP BY user_id ORDER BY total DESC", SCHEMA);
+        assertThat(vr.valid()).isTrue();
+        assertThat(vr.needsServerCheck()).isFalse();
+        assertThat(vr.sql()).endsWith("LIMIT 1000");
+    }
+
+    @Test
+    void unknownFunctionIsLeftToTheServer() {
+        var vr = validator.validate("SELECT sipHash64(user_id) FROM shop.orders", SCHEMA);
+        assertThat(vr.valid()).isTrue();
+        assertThat(vr.needsServerCheck()).isTrue();
+    }
+
+    @Test
+    void qualifiedColumnMustExistInTheTableItNames() {
+        var vr = validator.validate(
+                "SELECT o.user_name FROM shop.orders AS o JOIN shop.users AS u ON o.user_id = u.user_id", SCHEMA);
+        assertThat(vr.valid()).isFalse();
+        assertThat(vr.message()).contains("o.user_name");
+    }
+
+    @Test
+    void qualifiedColumnOfTheRightTablePassesWithoutServerCheck() {
+        var vr = validator.validate(
+                "SELECT u.user_name, sum(o.amount) FROM shop.orders AS o JOIN shop.users AS u ON o.user_id = u.user_id "
+                        + "GROUP BY u.user_name", SCHEMA);
+        assertThat(vr.valid()).isTrue();
+        assertThat(vr.needsServerCheck()).isFalse();
+    }
+
+    @Test
+    void tableNameAndDatabaseQualifiersResolve() {
+        assertThat(validator.validate("SELECT orders.amount FROM shop.orders", SCHEMA).valid()).isTrue();
+        assertThat(validator.validate("SELECT shop.orders.amount FROM shop.orders", SCHEMA).valid()).isTrue();
+        assertThat(validator.validate("SELECT users.amount FROM shop.users", SCHEMA).valid()).isFalse();
+    }
+
+    @Test
+    void subqueryQualifierIsLeftToTheServer() {
+        var vr = validator.validate(
+                "SELECT t.amount FROM (SELECT amount FROM shop.orders) AS t", SCHEMA);
+        assertThat(vr.valid()).isTrue();
+        assertThat(vr.needsServerCheck()).isTrue();
+    }
+
+    @Test
+    void timeAndRandomFunctionsMakeTheQueryNondeterministic() {
+        assertThat(validator.validate("SELECT amount FROM shop.orders WHERE amount > 10", SCHEMA).deterministic()).isTrue();
+        assertThat(validator.validate("SELECT count() FROM shop.orders WHERE toDate(now()) = today()", SCHEMA)
+                .deterministic()).isFalse();
+        assertThat(validator.validate("SELECT order_id FROM shop.orders ORDER BY rand() LIMIT 5", SCHEMA)
+                .deterministic()).isFalse();
+    }
+}